@@ -0,0 +1,64 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * main.ByteScanner that compares a whole vector of bytes (16 to 64 depending on the CPU) at a time with
+ * the incubating Vector API. Only loaded by ByteScanner.create when the jdk.incubator.vector module is present.
+ * It lives in its own source root so that src builds without the module, to add it compile this root on top:
+ * javac --add-modules jdk.incubator.vector -cp out -d out src-vector/main/VectorByteScanner.java
+ */
+public class VectorByteScanner implements ByteScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private final ScalarByteScanner tailScanner = new ScalarByteScanner(); // for the bytes after the last full vector
+
+    @Override
+    public int skipWhitespace(ByteBuffer source, int from, int limit) {
+        int i = from;
+        for (; i + LANES <= limit; i += LANES) {
+            ByteVector bytes = ByteVector.fromByteBuffer(SPECIES, source, i, ByteOrder.nativeOrder());
+            VectorMask<Byte> nonWhitespace = bytes.compare(VectorOperators.UNSIGNED_GT, (byte) ' ');
+            if (nonWhitespace.anyTrue()) {
+                return i + nonWhitespace.firstTrue();
+            }
+        }
+        return tailScanner.skipWhitespace(source, i, limit);
+    }
+
+    @Override
+    public int indexOfLineEnd(ByteBuffer source, int from, int limit) {
+        int i = from;
+        for (; i + LANES <= limit; i += LANES) {
+            ByteVector bytes = ByteVector.fromByteBuffer(SPECIES, source, i, ByteOrder.nativeOrder());
+            VectorMask<Byte> lineEnds = bytes.eq((byte) '\n').or(bytes.eq((byte) '\r'));
+            if (lineEnds.anyTrue()) {
+                return i + lineEnds.firstTrue();
+            }
+        }
+        return tailScanner.indexOfLineEnd(source, i, limit);
+    }
+
+    @Override
+    public int indexOfBlockCommentEnd(ByteBuffer source, int from, int limit) {
+        int i = from;
+        // the last lane needs the byte after it, so stop one byte early
+        for (; i + LANES < limit; i += LANES) {
+            ByteVector bytes = ByteVector.fromByteBuffer(SPECIES, source, i, ByteOrder.nativeOrder());
+            ByteVector nextBytes = ByteVector.fromByteBuffer(SPECIES, source, i + 1, ByteOrder.nativeOrder());
+            VectorMask<Byte> commentEnds = bytes.eq((byte) '*').and(nextBytes.eq((byte) '/'));
+            if (commentEnds.anyTrue()) {
+                return i + commentEnds.firstTrue();
+            }
+        }
+        return tailScanner.indexOfBlockCommentEnd(source, i, limit);
+    }
+}
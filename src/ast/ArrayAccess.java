@@ -0,0 +1,30 @@
+package ast;
+
+import symbol.Symbol;
+
+/**
+ * varName[index]
+ */
+public class ArrayAccess extends Expression {
+
+    private Symbol array; // the resolved variable holding the array
+    private Expression index;
+
+    public ArrayAccess(Symbol array, Expression index) {
+        this.array = array;
+        this.index = index;
+    }
+
+    public Symbol getArray() {
+        return array;
+    }
+
+    public Expression getIndex() {
+        return index;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitArrayAccess(this);
+    }
+}
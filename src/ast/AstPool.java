@@ -0,0 +1,173 @@
+package ast;
+
+import main.InternPool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact AST of one compilation unit, stored as parallel int arrays instead of one object per node.
+ * Every node has a kind, up to three int operands, its first child and its next sibling, so parsing
+ * a class of any size creates a handful of arrays. Names are referenced by their interned ID and
+ * string constants by their offsets in the source, nothing is materialized until code is generated.
+ * Nodes are visited by walking the child and sibling indices
+ */
+public class AstPool {
+
+    public static final int NO_NODE = -1;
+    public static final int ROOT = 0; // the class node, always the first node added to a whole class
+
+    // node kinds, with the meaning of their operands and children
+    public static final int CLASS = 0; // name ID, number of fields; children: subroutines
+    public static final int SUBROUTINE = 1; // name ID, number of locals, subroutine keyword ID; children: statements
+    public static final int STATEMENTS = 2; // children: statements
+    public static final int LET = 3; // segment, index, 1 for array element; children: [array index], value
+    public static final int IF = 4; // children: condition, then STATEMENTS, else STATEMENTS
+    public static final int WHILE = 5; // children: condition, STATEMENTS
+    public static final int DO = 6; // children: subroutine call
+    public static final int RETURN = 7; // children: [value]
+    public static final int INT_CONST = 8; // value
+    public static final int STRING_CONST = 9; // start and end offset of the literal in the source, quotes included
+    public static final int KEYWORD_CONST = 10; // keyword ID
+    public static final int VARIABLE = 11; // segment, index
+    public static final int ARRAY_ACCESS = 12; // segment, index; children: array index
+    public static final int CALL = 13; // class name ID, subroutine name ID, number of VM arguments; children: [receiver], arguments
+    public static final int UNARY = 14; // operator ID; children: operand
+    public static final int BINARY = 15; // operator ID; children: left, right
+
+    private final InternPool names; // the pool the name and operator IDs come from
+    private final ByteBuffer source; // the source code string constants point into
+    private int[] kinds;
+    private int[] operands; // three per node
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int size;
+
+    /**
+     * Initializes an empty AST
+     * @param names the pool of the compilation the names are interned in
+     * @param source the source code of the compilation unit
+     * @param initialCapacity number of nodes to make room for
+     */
+    public AstPool(InternPool names, ByteBuffer source, int initialCapacity) {
+        this.names = names;
+        this.source = source;
+        this.kinds = new int[initialCapacity];
+        this.operands = new int[initialCapacity * 3];
+        this.firstChildren = new int[initialCapacity];
+        this.nextSiblings = new int[initialCapacity];
+        this.size = 0;
+    }
+
+    /**
+     * Adds a node without children
+     * @param kind the kind of the node
+     * @param operand the first operand
+     * @param operand2 the second operand
+     * @param operand3 the third operand
+     * @return index of the new node
+     */
+    public int add(int kind, int operand, int operand2, int operand3) {
+        if (size == kinds.length) {
+            int capacity = Math.max(16, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            operands = Arrays.copyOf(operands, capacity * 3);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        }
+        int node = size;
+        kinds[node] = kind;
+        operands[node * 3] = operand;
+        operands[node * 3 + 1] = operand2;
+        operands[node * 3 + 2] = operand3;
+        firstChildren[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        size++;
+        return node;
+    }
+
+    /**
+     * Replaces the operands of a node, for operands that are only known once its children are parsed
+     * @param node the node
+     * @param operand the first operand
+     * @param operand2 the second operand
+     * @param operand3 the third operand
+     */
+    public void setOperands(int node, int operand, int operand2, int operand3) {
+        operands[node * 3] = operand;
+        operands[node * 3 + 1] = operand2;
+        operands[node * 3 + 2] = operand3;
+    }
+
+    /**
+     * Appends a child to a node
+     * @param parent the node to append to
+     * @param previousChild the current last child of the parent, NO_NODE if it has none yet
+     * @param child the node to append
+     * @return the child, which is the new last child of the parent
+     */
+    public int appendChild(int parent, int previousChild, int child) {
+        if (previousChild == NO_NODE) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[previousChild] = child;
+        }
+        return child;
+    }
+
+    /**
+     * Counts the direct children of a node
+     * @param node the node
+     * @return the number of children
+     */
+    public int numChildren(int node) {
+        int count = 0;
+        for (int child = firstChildren[node]; child != NO_NODE; child = nextSiblings[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes all nodes but keeps the arrays, so that the pool can be reused for the next subroutine
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public InternPool getNames() {
+        return names;
+    }
+
+    public ByteBuffer getSource() {
+        return source;
+    }
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public int operand(int node) {
+        return operands[node * 3];
+    }
+
+    public int operand2(int node) {
+        return operands[node * 3 + 1];
+    }
+
+    public int operand3(int node) {
+        return operands[node * 3 + 2];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+}
@@ -0,0 +1,34 @@
+package ast;
+
+/**
+ * Visits the statement and expression nodes of a typed AST, one method per kind of node
+ * @param <R> what each visit produces
+ */
+public interface AstVisitor<R> {
+
+    R visitLetStatement(LetStatement statement);
+
+    R visitIfStatement(IfStatement statement);
+
+    R visitWhileStatement(WhileStatement statement);
+
+    R visitDoStatement(DoStatement statement);
+
+    R visitReturnStatement(ReturnStatement statement);
+
+    R visitIntegerConstant(IntegerConstant expression);
+
+    R visitStringConstant(StringConstant expression);
+
+    R visitKeywordConstant(KeywordConstant expression);
+
+    R visitVariableReference(VariableReference expression);
+
+    R visitArrayAccess(ArrayAccess expression);
+
+    R visitSubroutineCall(SubroutineCall expression);
+
+    R visitUnaryExpression(UnaryExpression expression);
+
+    R visitBinaryExpression(BinaryExpression expression);
+}
@@ -0,0 +1,34 @@
+package ast;
+
+/**
+ * left op right. Jack has no operator precedence, so a chain of operators is a left leaning tree
+ */
+public class BinaryExpression extends Expression {
+
+    private Expression left;
+    private String operator; // one of + - * / & | < > =
+    private Expression right;
+
+    public BinaryExpression(Expression left, String operator, Expression right) {
+        this.left = left;
+        this.operator = operator;
+        this.right = right;
+    }
+
+    public Expression getLeft() {
+        return left;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public Expression getRight() {
+        return right;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitBinaryExpression(this);
+    }
+}
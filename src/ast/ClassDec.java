@@ -0,0 +1,33 @@
+package ast;
+
+import symboltable.ClassSymbolTable;
+
+import java.util.List;
+
+/**
+ * A Jack class declaration
+ */
+public class ClassDec {
+
+    private String className;
+    private ClassSymbolTable classST; // the static and field variables of the class
+    private List<SubroutineDec> subroutines; // in source order
+
+    public ClassDec(String className, ClassSymbolTable classST, List<SubroutineDec> subroutines) {
+        this.className = className;
+        this.classST = classST;
+        this.subroutines = subroutines;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public ClassSymbolTable getClassST() {
+        return classST;
+    }
+
+    public List<SubroutineDec> getSubroutines() {
+        return subroutines;
+    }
+}
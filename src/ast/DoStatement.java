@@ -0,0 +1,22 @@
+package ast;
+
+/**
+ * do subroutineCall; the returned value is discarded
+ */
+public class DoStatement extends Statement {
+
+    private SubroutineCall call;
+
+    public DoStatement(SubroutineCall call) {
+        this.call = call;
+    }
+
+    public SubroutineCall getCall() {
+        return call;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitDoStatement(this);
+    }
+}
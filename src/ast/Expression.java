@@ -0,0 +1,9 @@
+package ast;
+
+/**
+ * A Jack expression or term
+ */
+public abstract class Expression {
+
+    public abstract <R> R accept(AstVisitor<R> visitor);
+}
@@ -0,0 +1,36 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * if (condition) { statements } else { statements }
+ */
+public class IfStatement extends Statement {
+
+    private Expression condition;
+    private List<Statement> thenStatements;
+    private List<Statement> elseStatements; // empty if there is no else branch
+
+    public IfStatement(Expression condition, List<Statement> thenStatements, List<Statement> elseStatements) {
+        this.condition = condition;
+        this.thenStatements = thenStatements;
+        this.elseStatements = elseStatements;
+    }
+
+    public Expression getCondition() {
+        return condition;
+    }
+
+    public List<Statement> getThenStatements() {
+        return thenStatements;
+    }
+
+    public List<Statement> getElseStatements() {
+        return elseStatements;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitIfStatement(this);
+    }
+}
@@ -0,0 +1,19 @@
+package ast;
+
+public class IntegerConstant extends Expression {
+
+    private int value;
+
+    public IntegerConstant(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitIntegerConstant(this);
+    }
+}
@@ -0,0 +1,22 @@
+package ast;
+
+/**
+ * true, false, null or this
+ */
+public class KeywordConstant extends Expression {
+
+    private String keyword;
+
+    public KeywordConstant(String keyword) {
+        this.keyword = keyword;
+    }
+
+    public String getKeyword() {
+        return keyword;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitKeywordConstant(this);
+    }
+}
@@ -0,0 +1,36 @@
+package ast;
+
+import symbol.Symbol;
+
+/**
+ * let varName = expression; or let varName[index] = expression;
+ */
+public class LetStatement extends Statement {
+
+    private Symbol variable; // the variable assigned to
+    private Expression index; // the array index, null if a whole variable is assigned to
+    private Expression value;
+
+    public LetStatement(Symbol variable, Expression index, Expression value) {
+        this.variable = variable;
+        this.index = index;
+        this.value = value;
+    }
+
+    public Symbol getVariable() {
+        return variable;
+    }
+
+    public Expression getIndex() {
+        return index;
+    }
+
+    public Expression getValue() {
+        return value;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitLetStatement(this);
+    }
+}
@@ -0,0 +1,22 @@
+package ast;
+
+/**
+ * return expression; or return;
+ */
+public class ReturnStatement extends Statement {
+
+    private Expression value; // null for a void return
+
+    public ReturnStatement(Expression value) {
+        this.value = value;
+    }
+
+    public Expression getValue() {
+        return value;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitReturnStatement(this);
+    }
+}
@@ -0,0 +1,9 @@
+package ast;
+
+/**
+ * A Jack statement
+ */
+public abstract class Statement {
+
+    public abstract <R> R accept(AstVisitor<R> visitor);
+}
@@ -0,0 +1,19 @@
+package ast;
+
+public class StringConstant extends Expression {
+
+    private String value; // the contents of the literal, without the quotes
+
+    public StringConstant(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitStringConstant(this);
+    }
+}
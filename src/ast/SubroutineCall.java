@@ -0,0 +1,50 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * A call of a function, or of a method on an object
+ */
+public class SubroutineCall extends Expression {
+
+    private String className; // the class that defines the subroutine
+    private String subroutineName;
+    private Expression receiver; // the object a method is called on, null for functions and constructors
+    private List<Expression> arguments;
+
+    public SubroutineCall(String className, String subroutineName, Expression receiver, List<Expression> arguments) {
+        this.className = className;
+        this.subroutineName = subroutineName;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getSubroutineName() {
+        return subroutineName;
+    }
+
+    public Expression getReceiver() {
+        return receiver;
+    }
+
+    public List<Expression> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Counts the arguments passed on the stack, the receiver of a method call is passed as argument 0
+     * @return the number of arguments of the VM call
+     */
+    public int getNumArgs() {
+        return receiver == null ? arguments.size() : arguments.size() + 1;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitSubroutineCall(this);
+    }
+}
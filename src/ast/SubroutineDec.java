@@ -0,0 +1,64 @@
+package ast;
+
+import symboltable.SubroutineSymbolTable;
+
+import java.util.List;
+
+/**
+ * A Jack constructor, function or method declaration
+ */
+public class SubroutineDec {
+
+    private SubroutineKind subroutineKind;
+    private String className; // name of the class the subroutine belongs to
+    private String subroutineName;
+    private String returnType;
+    private int numLocals; // number of local variables, needed for the function declaration
+    private int numFields; // number of field variables of the class, constructors allocate that many words
+    private SubroutineSymbolTable subroutineST; // the arguments and local variables of the subroutine
+    private List<Statement> statements;
+
+    public SubroutineDec(SubroutineKind subroutineKind, String className, String subroutineName, String returnType,
+                         int numLocals, int numFields, SubroutineSymbolTable subroutineST, List<Statement> statements) {
+        this.subroutineKind = subroutineKind;
+        this.className = className;
+        this.subroutineName = subroutineName;
+        this.returnType = returnType;
+        this.numLocals = numLocals;
+        this.numFields = numFields;
+        this.subroutineST = subroutineST;
+        this.statements = statements;
+    }
+
+    public SubroutineKind getSubroutineKind() {
+        return subroutineKind;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getSubroutineName() {
+        return subroutineName;
+    }
+
+    public String getReturnType() {
+        return returnType;
+    }
+
+    public int getNumLocals() {
+        return numLocals;
+    }
+
+    public int getNumFields() {
+        return numFields;
+    }
+
+    public SubroutineSymbolTable getSubroutineST() {
+        return subroutineST;
+    }
+
+    public List<Statement> getStatements() {
+        return statements;
+    }
+}
@@ -0,0 +1,5 @@
+package ast;
+
+public enum SubroutineKind {
+    CONSTRUCTOR, FUNCTION, METHOD
+}
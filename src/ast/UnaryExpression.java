@@ -0,0 +1,28 @@
+package ast;
+
+/**
+ * -term or ~term
+ */
+public class UnaryExpression extends Expression {
+
+    private String operator;
+    private Expression operand;
+
+    public UnaryExpression(String operator, Expression operand) {
+        this.operator = operator;
+        this.operand = operand;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public Expression getOperand() {
+        return operand;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitUnaryExpression(this);
+    }
+}
@@ -0,0 +1,21 @@
+package ast;
+
+import symbol.Symbol;
+
+public class VariableReference extends Expression {
+
+    private Symbol variable; // the resolved variable
+
+    public VariableReference(Symbol variable) {
+        this.variable = variable;
+    }
+
+    public Symbol getVariable() {
+        return variable;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitVariableReference(this);
+    }
+}
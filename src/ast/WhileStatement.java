@@ -0,0 +1,30 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * while (condition) { statements }
+ */
+public class WhileStatement extends Statement {
+
+    private Expression condition;
+    private List<Statement> statements;
+
+    public WhileStatement(Expression condition, List<Statement> statements) {
+        this.condition = condition;
+        this.statements = statements;
+    }
+
+    public Expression getCondition() {
+        return condition;
+    }
+
+    public List<Statement> getStatements() {
+        return statements;
+    }
+
+    @Override
+    public <R> R accept(AstVisitor<R> visitor) {
+        return visitor.visitWhileStatement(this);
+    }
+}
@@ -0,0 +1,313 @@
+package main;
+
+import ast.*;
+import symbol.Symbol;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates VM code by walking the typed AST built by main.Parser, instruction by instruction through
+ * main.CodeGenerator. All code is written into one sink as it is generated, no construct builds a
+ * String of its own
+ */
+public class AstCodeGenerator implements AstVisitor<Void> {
+
+    // kinds of labels, numbered per kind within each VM function
+    static final String IF_ELSE = "IF_ELSE_";
+    static final String IF_END = "IF_END_";
+    static final String WHILE = "WHILE_";
+    static final String WHILE_END = "WHILE_END_";
+
+    private final CodeGenerator codeGenerator; // writes each instruction into the sink
+    // labels are local to the VM function being written, so they only depend on the function itself
+    private String labelPrefix = ""; // name of the function followed by $, empty outside of a function
+    private int numIfs = 0;
+    private int numWhiles = 0;
+
+    // expressions still to be written by writeExpression, a stack instead of the call stack
+    private Expression[] pending = new Expression[16];
+    private boolean[] operandsWritten = new boolean[16]; // true once only the operator of the expression is left
+    private int numPending = 0;
+
+    /**
+     * Initializes an AstCodeGenerator that writes all VM code into one sink, which may be the output file
+     * @param out the sink to write VM code to
+     */
+    public AstCodeGenerator(Appendable out) {
+        this.codeGenerator = new CodeGenerator(out);
+    }
+
+    /**
+     * Initializes an AstCodeGenerator that writes all VM code into an emitter or a VM program
+     * @param emitter where to write the VM instructions to
+     */
+    public AstCodeGenerator(VmWriter emitter) {
+        this.codeGenerator = new CodeGenerator(emitter);
+    }
+
+    /**
+     * Writes the VM code for a class declaration
+     * @param classDec the class declaration
+     */
+    public void writeClass(ClassDec classDec) {
+        for (SubroutineDec subroutineDec : classDec.getSubroutines()) {
+            writeSubroutine(subroutineDec);
+        }
+    }
+
+    /**
+     * Writes the VM code that pushes the values of expressions, in order
+     * @param expressions the expressions
+     */
+    public void writeExpressions(List<Expression> expressions) {
+        for (Expression expression : expressions) {
+            writeExpression(expression);
+        }
+    }
+
+    /**
+     * Writes the VM code that pushes the value of an expression
+     * @param expression the expression
+     */
+    public void writeExpression(Expression expression) {
+        int base = numPending;
+        schedule(expression, false);
+        while (numPending > base) {
+            numPending--;
+            Expression next = pending[numPending];
+            pending[numPending] = null;
+            if (operandsWritten[numPending]) {
+                writeOperator(next);
+            } else {
+                next.accept(this); // writes a leaf, or schedules the operands of a composite expression
+            }
+        }
+    }
+
+    /**
+     * Pushes an expression onto the stack of expressions still to be written, the one pushed last is
+     * written first
+     * @param expression the expression
+     * @param operandsWritten true to write only the operator, once the operands are written
+     */
+    private void schedule(Expression expression, boolean operandsWritten) {
+        if (numPending == pending.length) {
+            pending = Arrays.copyOf(pending, numPending * 2);
+            this.operandsWritten = Arrays.copyOf(this.operandsWritten, numPending * 2);
+        }
+        pending[numPending] = expression;
+        this.operandsWritten[numPending] = operandsWritten;
+        numPending++;
+    }
+
+    /**
+     * Writes what is left of a composite expression once its operands are on the VM stack
+     * @param expression the composite expression
+     */
+    private void writeOperator(Expression expression) {
+        if (expression instanceof BinaryExpression) {
+            codeGenerator.writeArithLogical(((BinaryExpression) expression).getOperator());
+        } else if (expression instanceof UnaryExpression) {
+            codeGenerator.writeUnaryOp(((UnaryExpression) expression).getOperator());
+        } else if (expression instanceof ArrayAccess) {
+            codeGenerator.writeArithLogical("+");
+            codeGenerator.writePop(MemorySegment.POINTER, 1);
+            codeGenerator.writePush(MemorySegment.THAT, 0);
+        } else {
+            SubroutineCall call = (SubroutineCall) expression;
+            codeGenerator.writeFuncCall(call.getClassName(), call.getSubroutineName(), call.getNumArgs());
+        }
+    }
+
+    /**
+     * Writes the VM code for a single statement
+     * @param statement the statement
+     */
+    public void writeStatement(Statement statement) {
+        statement.accept(this);
+    }
+
+    /**
+     * Writes the VM code for a subroutine declaration
+     * @param subroutineDec the subroutine declaration
+     */
+    public void writeSubroutine(SubroutineDec subroutineDec) {
+        codeGenerator.writeFunction(subroutineDec.getClassName(), subroutineDec.getSubroutineName(),
+                subroutineDec.getNumLocals());
+        labelPrefix = subroutineDec.getClassName() + "." + subroutineDec.getSubroutineName() + "$";
+        numIfs = 0;
+        numWhiles = 0;
+        if (subroutineDec.getSubroutineKind() == SubroutineKind.CONSTRUCTOR) {
+            codeGenerator.writePush(MemorySegment.CONSTANT, subroutineDec.getNumFields());
+            codeGenerator.writeFuncCall("Memory", "alloc", 1);
+            codeGenerator.writePop(MemorySegment.POINTER, 0);
+        } else if (subroutineDec.getSubroutineKind() == SubroutineKind.METHOD) {
+            codeGenerator.writePush(MemorySegment.ARGUMENT, 0);
+            codeGenerator.writePop(MemorySegment.POINTER, 0);
+        }
+        writeStatements(subroutineDec.getStatements());
+    }
+
+    /**
+     * Writes the VM code for a sequence of statements
+     * @param statements the statements
+     */
+    public void writeStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitLetStatement(LetStatement statement) {
+        Symbol variable = statement.getVariable();
+        if (statement.getIndex() != null) {
+            codeGenerator.writePush(getSymbolMemSeg(variable), variable.getNumKind());
+            writeExpression(statement.getIndex());
+            codeGenerator.writeArithLogical("+");
+            writeExpression(statement.getValue());
+            codeGenerator.writePop(MemorySegment.TEMP, 0); // store value of expression
+            codeGenerator.writePop(MemorySegment.POINTER, 1); // align THAT
+            codeGenerator.writePush(MemorySegment.TEMP, 0);
+            codeGenerator.writePop(MemorySegment.THAT, 0);
+        } else {
+            writeExpression(statement.getValue());
+            codeGenerator.writePop(getSymbolMemSeg(variable), variable.getNumKind());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(IfStatement statement) {
+        int number = numIfs++;
+        writeExpression(statement.getCondition());
+        codeGenerator.writeUnaryOp("~"); // negate the expression
+        codeGenerator.writeIfGOTO(labelPrefix, IF_ELSE, number);
+        writeStatements(statement.getThenStatements());
+        codeGenerator.writeGOTO(labelPrefix, IF_END, number);
+        codeGenerator.writeLabel(labelPrefix, IF_ELSE, number);
+        writeStatements(statement.getElseStatements());
+        codeGenerator.writeLabel(labelPrefix, IF_END, number);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(WhileStatement statement) {
+        int number = numWhiles++;
+        codeGenerator.writeLabel(labelPrefix, WHILE, number);
+        writeExpression(statement.getCondition());
+        codeGenerator.writeUnaryOp("~"); // negate the expression
+        codeGenerator.writeIfGOTO(labelPrefix, WHILE_END, number);
+        writeStatements(statement.getStatements());
+        codeGenerator.writeGOTO(labelPrefix, WHILE, number);
+        codeGenerator.writeLabel(labelPrefix, WHILE_END, number);
+        return null;
+    }
+
+    @Override
+    public Void visitDoStatement(DoStatement statement) {
+        writeExpression(statement.getCall());
+        codeGenerator.writePop(MemorySegment.TEMP, 0); // pop off the useless value
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(ReturnStatement statement) {
+        if (statement.getValue() == null) { // return void
+            codeGenerator.writePush(MemorySegment.CONSTANT, 0);
+        } else {
+            writeExpression(statement.getValue());
+        }
+        codeGenerator.writeReturn();
+        return null;
+    }
+
+    @Override
+    public Void visitIntegerConstant(IntegerConstant expression) {
+        codeGenerator.writePush(MemorySegment.CONSTANT, expression.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitStringConstant(StringConstant expression) {
+        codeGenerator.writeStringLiteral(expression.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitKeywordConstant(KeywordConstant expression) {
+        codeGenerator.writeKeywordConstant(expression.getKeyword());
+        return null;
+    }
+
+    @Override
+    public Void visitVariableReference(VariableReference expression) {
+        Symbol variable = expression.getVariable();
+        codeGenerator.writePush(getSymbolMemSeg(variable), variable.getNumKind());
+        return null;
+    }
+
+    // composite expressions only schedule their operands and themselves, see writeExpression
+
+    @Override
+    public Void visitArrayAccess(ArrayAccess expression) {
+        Symbol array = expression.getArray();
+        codeGenerator.writePush(getSymbolMemSeg(array), array.getNumKind());
+        schedule(expression, true);
+        schedule(expression.getIndex(), false);
+        return null;
+    }
+
+    @Override
+    public Void visitSubroutineCall(SubroutineCall expression) {
+        schedule(expression, true);
+        List<Expression> arguments = expression.getArguments();
+        for (int i = arguments.size() - 1; i >= 0; i--) {
+            schedule(arguments.get(i), false);
+        }
+        if (expression.getReceiver() != null) {
+            schedule(expression.getReceiver(), false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(UnaryExpression expression) {
+        schedule(expression, true);
+        schedule(expression.getOperand(), false);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(BinaryExpression expression) {
+        schedule(expression, true);
+        schedule(expression.getRight(), false);
+        schedule(expression.getLeft(), false);
+        return null;
+    }
+
+    /**
+     * Retrieves the corresponding MemorySegment of a Symbol
+     * @param symbol a Symbol object
+     * @return the corresponding MemorySegment of a Symbol
+     */
+    static MemorySegment getSymbolMemSeg(Symbol symbol) {
+        MemorySegment memSeg = MemorySegment.LOCAL; // give memSeg an arbitrary starting value
+        switch (symbol.getSymbolKind()) {
+            case FIELD:
+                memSeg = MemorySegment.THIS;
+                break;
+            case STATIC:
+                memSeg = MemorySegment.STATIC;
+                break;
+            case ARGUMENT:
+                memSeg = MemorySegment.ARGUMENT;
+                break;
+            case LOCAL: // unnecessary, kept for readability
+                memSeg = MemorySegment.LOCAL;
+                break;
+        }
+        return memSeg;
+    }
+}
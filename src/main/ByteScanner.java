@@ -0,0 +1,56 @@
+package main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk scans over ASCII source bytes that the main.Lexer uses to skip whitespace and comments in one call
+ * instead of one state machine step per byte
+ */
+public interface ByteScanner {
+
+    /**
+     * Finds the first byte that is not whitespace, control characters count as whitespace
+     * @param source the ASCII source code
+     * @param from offset to start scanning from
+     * @param limit offset one past the last byte to scan
+     * @return offset of the first non-whitespace byte, or limit if there is none
+     */
+    int skipWhitespace(ByteBuffer source, int from, int limit);
+
+    /**
+     * Finds the end of a line
+     * @param source the ASCII source code
+     * @param from offset to start scanning from
+     * @param limit offset one past the last byte to scan
+     * @return offset of the first '\n' or '\r', or -1 if there is none
+     */
+    int indexOfLineEnd(ByteBuffer source, int from, int limit);
+
+    /**
+     * Finds the end of a block comment
+     * @param source the ASCII source code
+     * @param from offset to start scanning from, just inside the comment
+     * @param limit offset one past the last byte to scan
+     * @return offset of the '*' of the first "*&#47;", or -1 if there is none
+     */
+    int indexOfBlockCommentEnd(ByteBuffer source, int from, int limit);
+
+    /**
+     * Picks the fastest scanner available. The vectorized scanner is compiled separately from src-vector
+     * and needs the jdk.incubator.vector module (run with --add-modules jdk.incubator.vector), otherwise,
+     * or with -Djack.simd=false, the scalar scanner is used
+     * @return a main.ByteScanner
+     */
+    static ByteScanner create() {
+        boolean vectorModulePresent = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (vectorModulePresent && !"false".equals(System.getProperty("jack.simd"))) {
+            try {
+                // loaded reflectively so this interface links without the incubator module or the class
+                return (ByteScanner) Class.forName("main.VectorByteScanner").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarByteScanner();
+            }
+        }
+        return new ScalarByteScanner();
+    }
+}
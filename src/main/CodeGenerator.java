@@ -1,10 +1,37 @@
 package main;
 
 /**
- * Class responsible for generating VM code
+ * Class responsible for generating VM code. The generateX methods return each instruction as a String,
+ * the writeX methods write it through a main.VmWriter: a main.VmEmitter that writes text into the sink
+ * the generator was created with or straight into the emitter's buffer, so a whole compilation can stream
+ * into one buffer or into the output file without building a String per instruction, or a main.VmProgram
+ * that keeps the instructions int-encoded for later passes
  */
 public class CodeGenerator {
 
+    private final VmWriter emitter; // the writeX methods emit through this
+    private final VmEmitter scratch = new VmEmitter(); // the generateX methods emit into this
+
+    public CodeGenerator() {
+        this(new StringBuilder());
+    }
+
+    /**
+     * Initializes a CodeGenerator that writes into a sink, each instruction is appended as it is written
+     * @param out the sink the writeX methods append VM code to
+     */
+    public CodeGenerator(Appendable out) {
+        this.emitter = new VmEmitter(out);
+    }
+
+    /**
+     * Initializes a CodeGenerator that writes into an emitter or a VM program
+     * @param emitter where the writeX methods write VM instructions to
+     */
+    public CodeGenerator(VmWriter emitter) {
+        this.emitter = emitter;
+    }
+
     /**
      * Generates a VM push instruction
      * @param segment the memory segment to push from
@@ -12,7 +39,8 @@ public class CodeGenerator {
      * @return a VM push instruction
      */
     public String generatePush(MemorySegment segment, int index) {
-        return String.format("push %s %d\n", segment.name().toLowerCase(), index);
+        scratch.emitPush(segment, index);
+        return takeScratch();
     }
 
     /**
@@ -22,7 +50,8 @@ public class CodeGenerator {
      * @return a VM pop instruction
      */
     public String generatePop(MemorySegment segment, int index) {
-        return String.format("pop %s %d\n", segment.name().toLowerCase(), index);
+        scratch.emitPop(segment, index);
+        return takeScratch();
     }
 
     /**
@@ -31,37 +60,8 @@ public class CodeGenerator {
      * @return an arithmetic/logical VM instruction
      */
     public String generateArithLogical(String command) {
-        String VMOp = "";
-        switch (command) {
-            case "+":
-                VMOp = "add";
-                break;
-            case "-":
-                VMOp = "sub";
-                break;
-            case "=":
-                VMOp = "eq";
-                break;
-            case ">":
-                VMOp = "gt";
-                break;
-            case "<":
-                VMOp = "lt";
-                break;
-            case "&":
-                VMOp = "and";
-                break;
-            case "|":
-                VMOp = "or";
-                break;
-            case "*":
-                VMOp = "call Math.multiply 2";
-                break;
-            case "/":
-                VMOp = "call Math.divide 2";
-                break;
-        }
-        return VMOp + "\n";
+        writeArithLogical(scratch, command);
+        return takeScratch();
     }
 
     /**
@@ -70,16 +70,8 @@ public class CodeGenerator {
      * @return the VM command for a unary operation
      */
     public String generateUnaryOp(String op) {
-        String VMOp = "";
-        switch (op) {
-            case "-":
-                VMOp = "neg";
-                break;
-            case "~":
-                VMOp = "not";
-                break;
-        }
-        return VMOp + "\n";
+        writeUnaryOp(scratch, op);
+        return takeScratch();
     }
 
     /**
@@ -88,7 +80,8 @@ public class CodeGenerator {
      * @return a label in VM code
      */
     public String generateLabel(String label) {
-        return String.format("label %s\n", label);
+        scratch.emitLabel(label);
+        return takeScratch();
     }
 
     /**
@@ -97,7 +90,8 @@ public class CodeGenerator {
      * @return a goto command in VM code
      */
     public String generateGOTO(String label) {
-        return String.format("goto %s\n", label);
+        scratch.emitGOTO(label);
+        return takeScratch();
     }
 
     /**
@@ -106,7 +100,8 @@ public class CodeGenerator {
      * @return an if-goto command in VM code
      */
     public String generateIfGOTO(String label) {
-        return String.format("if-goto %s\n", label);
+        scratch.emitIfGOTO(label);
+        return takeScratch();
     }
 
     /**
@@ -116,7 +111,8 @@ public class CodeGenerator {
      * @return a function call in VM code
      */
     public String generateFuncCall(String funcName, int numArgs) {
-        return String.format("call %s %d\n", funcName, numArgs);
+        scratch.emitFuncCall(funcName, numArgs);
+        return takeScratch();
     }
 
     /**
@@ -126,7 +122,8 @@ public class CodeGenerator {
      * @return a function definition in VM code
      */
     public String generateFunction(String funcName, int numLocals) {
-        return String.format("function %s %d\n", funcName, numLocals);
+        scratch.emitFunction(funcName, numLocals);
+        return takeScratch();
     }
 
     /**
@@ -143,15 +140,8 @@ public class CodeGenerator {
      * @return the VM code for constructing a string literal
      */
     public String generateStringLiteral(String str) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(generatePush(MemorySegment.CONSTANT, str.length()));
-        sb.append(generateFuncCall("String.new", 1));
-        for (int i = 0; i < str.length(); i++) {
-            int asciiOfChar = (int) str.charAt(i);
-            sb.append(generatePush(MemorySegment.CONSTANT, asciiOfChar));
-            sb.append(generateFuncCall("String.appendChar", 2));
-        }
-        return sb.toString();
+        writeStringLiteral(scratch, str);
+        return takeScratch();
     }
 
     /**
@@ -160,19 +150,229 @@ public class CodeGenerator {
      * @return the VM code for pushing a keyword constant
      */
     public String generateKeywordConstant(String keyword) {
-        String vmCode = "";
+        writeKeywordConstant(scratch, keyword);
+        return takeScratch();
+    }
+
+    /**
+     * Writes a VM push instruction
+     * @param segment the memory segment to push from
+     * @param index the index of the memory segment to push from
+     */
+    public void writePush(MemorySegment segment, int index) {
+        emitter.emitPush(segment, index);
+    }
+
+    /**
+     * Writes a VM pop instruction
+     * @param segment the memory segment to pop to
+     * @param index the index of the memory segment to pop to
+     */
+    public void writePop(MemorySegment segment, int index) {
+        emitter.emitPop(segment, index);
+    }
+
+    /**
+     * Writes an arithmetic/logical VM instruction
+     * @param command the binary operator
+     */
+    public void writeArithLogical(String command) {
+        writeArithLogical(emitter, command);
+    }
+
+    /**
+     * Writes the VM command for a unary operation
+     * @param op the operation
+     */
+    public void writeUnaryOp(String op) {
+        writeUnaryOp(emitter, op);
+    }
+
+    /**
+     * Writes a label in VM code
+     * @param label the label to write
+     */
+    public void writeLabel(String label) {
+        emitter.emitLabel(label);
+    }
+
+    /**
+     * Writes a label numbered within its function, without building the label
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    public void writeLabel(String prefix, String kind, int number) {
+        emitter.emitLabel(prefix, kind, number);
+    }
+
+    /**
+     * Writes a goto command in VM code
+     * @param label the label to goto
+     */
+    public void writeGOTO(String label) {
+        emitter.emitGOTO(label);
+    }
+
+    /**
+     * Writes a goto command to a label numbered within its function
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    public void writeGOTO(String prefix, String kind, int number) {
+        emitter.emitGOTO(prefix, kind, number);
+    }
+
+    /**
+     * Writes an if-goto command in VM code
+     * @param label the label to goto
+     */
+    public void writeIfGOTO(String label) {
+        emitter.emitIfGOTO(label);
+    }
+
+    /**
+     * Writes an if-goto command to a label numbered within its function
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    public void writeIfGOTO(String prefix, String kind, int number) {
+        emitter.emitIfGOTO(prefix, kind, number);
+    }
+
+    /**
+     * Writes a function call in VM code
+     * @param className name of the class of the function
+     * @param funcName name of the function within the class
+     * @param numArgs number of arguments the function takes
+     */
+    public void writeFuncCall(String className, String funcName, int numArgs) {
+        emitter.emitFuncCall(className, funcName, numArgs);
+    }
+
+    /**
+     * Writes a function definition in VM code
+     * @param className name of the class of the function
+     * @param funcName name of the function within the class
+     * @param numLocals number of local variables the function has
+     */
+    public void writeFunction(String className, String funcName, int numLocals) {
+        emitter.emitFunction(className, funcName, numLocals);
+    }
+
+    /**
+     * Writes a return statement in VM code
+     */
+    public void writeReturn() {
+        emitter.emitReturn();
+    }
+
+    /**
+     * Writes the VM code for constructing a string literal
+     * @param str the string literal
+     */
+    public void writeStringLiteral(String str) {
+        writeStringLiteral(emitter, str);
+    }
+
+    /**
+     * Writes the VM code for pushing a keyword constant (e.g. true, false, null, etc)
+     * @param keyword the keyword
+     */
+    public void writeKeywordConstant(String keyword) {
+        writeKeywordConstant(emitter, keyword);
+    }
+
+    /**
+     * Maps a binary operator to its VM command, Jack's multiplication and division are calls to the OS
+     * @param emitter where to write the command to
+     * @param command the binary operator
+     */
+    private static void writeArithLogical(VmWriter emitter, String command) {
+        switch (command) {
+            case "+":
+                emitter.emitArithmetic(VmProgram.ADD);
+                break;
+            case "-":
+                emitter.emitArithmetic(VmProgram.SUB);
+                break;
+            case "=":
+                emitter.emitArithmetic(VmProgram.EQ);
+                break;
+            case ">":
+                emitter.emitArithmetic(VmProgram.GT);
+                break;
+            case "<":
+                emitter.emitArithmetic(VmProgram.LT);
+                break;
+            case "&":
+                emitter.emitArithmetic(VmProgram.AND);
+                break;
+            case "|":
+                emitter.emitArithmetic(VmProgram.OR);
+                break;
+            case "*":
+                emitter.emitFuncCall("Math", "multiply", 2);
+                break;
+            case "/":
+                emitter.emitFuncCall("Math", "divide", 2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown binary operator " + command);
+        }
+    }
+
+    /**
+     * Maps a unary operator to its VM command
+     * @param emitter where to write the command to
+     * @param op the unary operator
+     */
+    private static void writeUnaryOp(VmWriter emitter, String op) {
+        switch (op) {
+            case "-":
+                emitter.emitArithmetic(VmProgram.NEG);
+                break;
+            case "~":
+                emitter.emitArithmetic(VmProgram.NOT);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown unary operator " + op);
+        }
+    }
+
+    private static void writeStringLiteral(VmWriter emitter, String str) {
+        emitter.emitPush(MemorySegment.CONSTANT, str.length());
+        emitter.emitFuncCall("String", "new", 1);
+        for (int i = 0; i < str.length(); i++) {
+            emitter.emitPush(MemorySegment.CONSTANT, str.charAt(i));
+            emitter.emitFuncCall("String", "appendChar", 2);
+        }
+    }
+
+    private static void writeKeywordConstant(VmWriter emitter, String keyword) {
         switch (keyword) {
             case "true":
-                vmCode += generatePush(MemorySegment.CONSTANT, 1);
-                vmCode += generateUnaryOp("-");
+                emitter.emitPush(MemorySegment.CONSTANT, 1);
+                emitter.emitArithmetic(VmProgram.NEG);
                 break;
             case "false": case "null":
-                vmCode += generatePush(MemorySegment.CONSTANT, 0);
+                emitter.emitPush(MemorySegment.CONSTANT, 0);
                 break;
             case "this":
-                vmCode += generatePush(MemorySegment.POINTER, 0);
+                emitter.emitPush(MemorySegment.POINTER, 0);
                 break;
         }
-        return vmCode;
+    }
+
+    /**
+     * Takes the VM code the generateX methods emitted into the scratch emitter
+     * @return the VM code
+     */
+    private String takeScratch() {
+        String code = scratch.toString();
+        scratch.reset();
+        return code;
     }
 }
@@ -0,0 +1,20 @@
+package main;
+
+/**
+ * Thrown when a class cannot be compiled, with the diagnostic that describes why
+ */
+public class CompileError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Diagnostic diagnostic;
+
+    public CompileError(Diagnostic diagnostic) {
+        super(diagnostic.toString());
+        this.diagnostic = diagnostic;
+    }
+
+    public Diagnostic getDiagnostic() {
+        return diagnostic;
+    }
+}
@@ -0,0 +1,88 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A problem found in Jack source code, at the token where it was found
+ */
+public class Diagnostic {
+
+    public enum Kind {
+        SYNTAX_ERROR, // the tokens do not form a class, parsing stops here
+        UNDEFINED_SYMBOL // a variable that is not declared
+    }
+
+    private final Kind kind;
+    private final int offset; // of the token in the source
+    private final int line; // counted from 1, 0 until the diagnostic is located
+    private final int column; // counted from 1, 0 until the diagnostic is located
+    private final String message;
+
+    Diagnostic(Kind kind, int offset, String message) {
+        this(kind, offset, 0, 0, message);
+    }
+
+    private Diagnostic(Kind kind, int offset, int line, int column, String message) {
+        this.kind = kind;
+        this.offset = offset;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    /**
+     * Fills in the line and column of diagnostics, in one pass over the source
+     * @param source the source code the offsets of the diagnostics point into
+     * @param diagnostics the diagnostics, sorted by offset
+     * @return the located diagnostics, in the same order
+     */
+    static List<Diagnostic> locate(ByteBuffer source, List<Diagnostic> diagnostics) {
+        List<Diagnostic> located = new ArrayList<>(diagnostics.size());
+        int position = 0;
+        int line = 1;
+        int lineStart = 0;
+        for (Diagnostic diagnostic : diagnostics) {
+            int offset = Math.min(diagnostic.offset, source.limit());
+            for (; position < offset; position++) {
+                if (source.get(position) == '\n') {
+                    line++;
+                    lineStart = position + 1;
+                }
+            }
+            located.add(new Diagnostic(diagnostic.kind, diagnostic.offset, line, offset - lineStart + 1,
+                    diagnostic.message));
+        }
+        return located;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Formats the diagnostic the way compilers do, to be prefixed with the name of the file
+     * @return line:column: message
+     */
+    @Override
+    public String toString() {
+        return line + ":" + column + ": " + message;
+    }
+}
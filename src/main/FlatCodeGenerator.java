@@ -0,0 +1,239 @@
+package main;
+
+import ast.AstPool;
+
+import java.util.Arrays;
+
+/**
+ * Generates VM code by walking the compact AST built by main.FlatParser by node index, the output is the
+ * same as main.AstCodeGenerator produces for the same class
+ */
+public class FlatCodeGenerator {
+
+    private static final MemorySegment[] SEGMENTS = MemorySegment.values();
+
+    private final AstPool ast;
+    private final InternPool names;
+    private final CodeGenerator codeGenerator; // writes each instruction into the sink
+    private String labelPrefix = ""; // name of the function being written followed by $, labels are local to it
+    private int numIfs = 0;
+    private int numWhiles = 0;
+    private int[] pending = new int[16]; // expression nodes still to be written, see writeExpression
+    private int numPending = 0;
+
+    /**
+     * Initializes a FlatCodeGenerator that writes all VM code into one sink
+     * @param ast the AST to generate VM code for
+     * @param out the sink to write VM code to
+     */
+    public FlatCodeGenerator(AstPool ast, Appendable out) {
+        this.ast = ast;
+        this.names = ast.getNames();
+        this.codeGenerator = new CodeGenerator(out);
+    }
+
+    /**
+     * Initializes a FlatCodeGenerator that writes all VM code into an emitter or a VM program
+     * @param ast the AST to generate VM code for
+     * @param emitter where to write the VM instructions to
+     */
+    public FlatCodeGenerator(AstPool ast, VmWriter emitter) {
+        this.ast = ast;
+        this.names = ast.getNames();
+        this.codeGenerator = new CodeGenerator(emitter);
+    }
+
+    /**
+     * Writes the VM code for a class declaration
+     * @param classNode the CLASS node
+     */
+    public void writeClass(int classNode) {
+        String className = names.name(ast.operand(classNode));
+        int numFields = ast.operand2(classNode);
+        for (int subroutine = ast.firstChild(classNode); subroutine != AstPool.NO_NODE;
+             subroutine = ast.nextSibling(subroutine)) {
+            writeSubroutine(subroutine, className, numFields);
+        }
+    }
+
+    /**
+     * Writes the VM code for a subroutine declaration
+     * @param subroutine the SUBROUTINE node
+     * @param className the name of the class the subroutine belongs to
+     * @param numFields the number of field variables of the class, allocated by constructors
+     */
+    public void writeSubroutine(int subroutine, String className, int numFields) {
+        String subroutineName = names.name(ast.operand(subroutine));
+        codeGenerator.writeFunction(className, subroutineName, ast.operand2(subroutine));
+        labelPrefix = className + "." + subroutineName + "$";
+        numIfs = 0;
+        numWhiles = 0;
+        int subroutineType = ast.operand3(subroutine);
+        if (subroutineType == InternPool.KW_CONSTRUCTOR) {
+            codeGenerator.writePush(MemorySegment.CONSTANT, numFields);
+            codeGenerator.writeFuncCall("Memory", "alloc", 1);
+            codeGenerator.writePop(MemorySegment.POINTER, 0);
+        } else if (subroutineType == InternPool.KW_METHOD) {
+            codeGenerator.writePush(MemorySegment.ARGUMENT, 0);
+            codeGenerator.writePop(MemorySegment.POINTER, 0);
+        }
+        writeStatements(subroutine);
+    }
+
+    /**
+     * Writes the children of a node as statements
+     * @param parent the SUBROUTINE or STATEMENTS node
+     */
+    private void writeStatements(int parent) {
+        for (int statement = ast.firstChild(parent); statement != AstPool.NO_NODE;
+             statement = ast.nextSibling(statement)) {
+            writeStatement(statement);
+        }
+    }
+
+    private void writeStatement(int statement) {
+        int first = ast.firstChild(statement);
+        switch (ast.kind(statement)) {
+            case AstPool.LET: {
+                MemorySegment segment = SEGMENTS[ast.operand(statement)];
+                int index = ast.operand2(statement);
+                if (ast.operand3(statement) == 1) { // array element, the index is the first child
+                    codeGenerator.writePush(segment, index);
+                    writeExpression(first);
+                    codeGenerator.writeArithLogical("+");
+                    writeExpression(ast.nextSibling(first));
+                    codeGenerator.writePop(MemorySegment.TEMP, 0); // store value of expression
+                    codeGenerator.writePop(MemorySegment.POINTER, 1); // align THAT
+                    codeGenerator.writePush(MemorySegment.TEMP, 0);
+                    codeGenerator.writePop(MemorySegment.THAT, 0);
+                } else {
+                    writeExpression(first);
+                    codeGenerator.writePop(segment, index);
+                }
+                break;
+            }
+            case AstPool.IF: {
+                int number = numIfs++;
+                int thenStatements = ast.nextSibling(first);
+                writeExpression(first);
+                codeGenerator.writeUnaryOp("~"); // negate the expression
+                codeGenerator.writeIfGOTO(labelPrefix, AstCodeGenerator.IF_ELSE, number);
+                writeStatements(thenStatements);
+                codeGenerator.writeGOTO(labelPrefix, AstCodeGenerator.IF_END, number);
+                codeGenerator.writeLabel(labelPrefix, AstCodeGenerator.IF_ELSE, number);
+                writeStatements(ast.nextSibling(thenStatements));
+                codeGenerator.writeLabel(labelPrefix, AstCodeGenerator.IF_END, number);
+                break;
+            }
+            case AstPool.WHILE: {
+                int number = numWhiles++;
+                codeGenerator.writeLabel(labelPrefix, AstCodeGenerator.WHILE, number);
+                writeExpression(first);
+                codeGenerator.writeUnaryOp("~"); // negate the expression
+                codeGenerator.writeIfGOTO(labelPrefix, AstCodeGenerator.WHILE_END, number);
+                writeStatements(ast.nextSibling(first));
+                codeGenerator.writeGOTO(labelPrefix, AstCodeGenerator.WHILE, number);
+                codeGenerator.writeLabel(labelPrefix, AstCodeGenerator.WHILE_END, number);
+                break;
+            }
+            case AstPool.DO:
+                writeExpression(first);
+                codeGenerator.writePop(MemorySegment.TEMP, 0); // pop off the useless value
+                break;
+            case AstPool.RETURN:
+                if (first == AstPool.NO_NODE) { // return void
+                    codeGenerator.writePush(MemorySegment.CONSTANT, 0);
+                } else {
+                    writeExpression(first);
+                }
+                codeGenerator.writeReturn();
+                break;
+        }
+    }
+
+    /**
+     * Writes an expression without recursing. Nodes still to be written are kept on a stack as twice
+     * their index, plus one once their operands are written and only their operator is left
+     * @param expression the expression node
+     */
+    private void writeExpression(int expression) {
+        int base = numPending;
+        schedule(expression * 2);
+        while (numPending > base) {
+            int entry = pending[--numPending];
+            int node = entry >> 1;
+            int first = ast.firstChild(node);
+            switch (ast.kind(node)) {
+                case AstPool.INT_CONST:
+                    codeGenerator.writePush(MemorySegment.CONSTANT, ast.operand(node));
+                    break;
+                case AstPool.STRING_CONST:
+                    String value = Lexer.stringValue(ast.getSource(), ast.operand(node), ast.operand2(node));
+                    codeGenerator.writeStringLiteral(value);
+                    break;
+                case AstPool.KEYWORD_CONST:
+                    codeGenerator.writeKeywordConstant(names.name(ast.operand(node)));
+                    break;
+                case AstPool.VARIABLE:
+                    codeGenerator.writePush(SEGMENTS[ast.operand(node)], ast.operand2(node));
+                    break;
+                case AstPool.ARRAY_ACCESS:
+                    if ((entry & 1) == 0) {
+                        codeGenerator.writePush(SEGMENTS[ast.operand(node)], ast.operand2(node));
+                        schedule(entry + 1);
+                        schedule(first * 2);
+                    } else {
+                        codeGenerator.writeArithLogical("+");
+                        codeGenerator.writePop(MemorySegment.POINTER, 1);
+                        codeGenerator.writePush(MemorySegment.THAT, 0);
+                    }
+                    break;
+                case AstPool.CALL:
+                    if ((entry & 1) == 0) {
+                        schedule(entry + 1);
+                        int arguments = numPending;
+                        for (int argument = first; argument != AstPool.NO_NODE; argument = ast.nextSibling(argument)) {
+                            schedule(argument * 2);
+                        }
+                        reversePending(arguments); // the first argument is written first
+                    } else {
+                        codeGenerator.writeFuncCall(names.name(ast.operand(node)), names.name(ast.operand2(node)),
+                                ast.operand3(node));
+                    }
+                    break;
+                case AstPool.UNARY:
+                    if ((entry & 1) == 0) {
+                        schedule(entry + 1);
+                        schedule(first * 2);
+                    } else {
+                        codeGenerator.writeUnaryOp(names.name(ast.operand(node)));
+                    }
+                    break;
+                case AstPool.BINARY:
+                    if ((entry & 1) == 0) {
+                        schedule(entry + 1);
+                        schedule(ast.nextSibling(first) * 2);
+                        schedule(first * 2);
+                    } else {
+                        codeGenerator.writeArithLogical(names.name(ast.operand(node)));
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void schedule(int entry) {
+        if (numPending == pending.length) {
+            pending = Arrays.copyOf(pending, numPending * 2);
+        }
+        pending[numPending++] = entry;
+    }
+
+    private void reversePending(int from) {
+        for (int i = from, j = numPending - 1; i < j; i++, j--) {
+            int entry = pending[i];
+            pending[i] = pending[j];
+            pending[j] = entry;
+        }
+    }
+}
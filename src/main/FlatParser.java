@@ -0,0 +1,535 @@
+package main;
+
+import ast.AstPool;
+import symbol.Symbol;
+import symbol.SymbolKind;
+import symboltable.ClassSymbolTable;
+import symboltable.SubroutineSymbolTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static main.InternPool.*;
+
+/**
+ * Alternative to main.Parser that builds the compact, array backed ast.AstPool instead of one object
+ * per node, for very large classes. Symbols are resolved while parsing, just like main.Parser does,
+ * and stored in the nodes as their memory segment and index
+ */
+public class FlatParser extends ParserBase {
+
+    private AstPool ast;
+    private int currentClassName; // interned ID of the name of the class being parsed
+
+    /**
+     * Initializes a main.FlatParser over a Jack source code file
+     * @param inputFile the Jack source code file
+     * @throws IOException IOException
+     */
+    public FlatParser(File inputFile) throws IOException {
+        this(new Tokenizer(inputFile));
+    }
+
+    /**
+     * Initializes a main.FlatParser over an existing token stream
+     * @param tokenizer the tokens of the Jack source code
+     */
+    public FlatParser(Tokenizer tokenizer) {
+        super(tokenizer);
+        this.classST = new ClassSymbolTable(pool);
+        this.subroutineST = new SubroutineSymbolTable(pool); // reset for every subroutine instead of reallocated
+    }
+
+    /**
+     * Compiles the VM code for a class declaration
+     * @return the VM code for a class declaration
+     */
+    public String compileClass() {
+        VmEmitter vmCode = new VmEmitter();
+        compileClass(vmCode);
+        return vmCode.toString();
+    }
+
+    /**
+     * Compiles a class declaration instruction by instruction into a writer, e.g. an emitter or an
+     * optimizer. Each subroutine is written as soon as it is parsed and its nodes are then cleared from
+     * the pool, so the pool only ever grows to the size of the largest subroutine
+     * @param out where to write the VM instructions to
+     */
+    public void compileClass(VmWriter out) {
+        this.ast = new AstPool(pool, tokenizer.getSource(), 1024);
+        FlatCodeGenerator generator = new FlatCodeGenerator(ast, out);
+        parseClass(subroutine -> {
+            generator.writeSubroutine(subroutine, pool.name(currentClassName), classST.getFieldVarCount());
+            ast.clear();
+        });
+        this.ast = null;
+    }
+
+    /**
+     * Parses a class declaration into a new AST, whose root is the class node
+     * @return the AST of the class
+     */
+    public AstPool parseClass() {
+        // a low guess of the number of nodes, comments and indentation can make up most of the source
+        this.ast = new AstPool(pool, tokenizer.getSource(), Math.max(16, tokenizer.getSource().limit() / 64));
+        int classNode = ast.add(AstPool.CLASS, 0, 0, 0);
+        int[] lastSubroutine = {AstPool.NO_NODE};
+        parseClass(subroutine -> lastSubroutine[0] = ast.appendChild(classNode, lastSubroutine[0], subroutine));
+        AstPool classAst = ast;
+        // the operands of the class node are only known now
+        classAst.setOperands(classNode, currentClassName, classST.getFieldVarCount(), 0);
+        this.ast = null;
+        return classAst;
+    }
+
+    /**
+     * Parses a class declaration into the current AST, handing each subroutine over as soon as it is parsed
+     * @param subroutines receives the SUBROUTINE nodes in source order
+     */
+    private void parseClass(IntConsumer subroutines) {
+        this.classST = new ClassSymbolTable(pool);
+        expect(KW_CLASS);
+        this.currentClassName = expectIdentifier("a class name");
+        expect(SYM_LEFT_BRACE);
+        int nextToken = nextTokenId("a subroutine or '}'");
+        while (nextToken == KW_STATIC || nextToken == KW_FIELD) {
+            compileClassVarDec(nextToken);
+            nextToken = nextTokenId("a subroutine or '}'");
+        }
+        while (nextToken == KW_CONSTRUCTOR || nextToken == KW_FUNCTION || nextToken == KW_METHOD) {
+            subroutines.accept(parseSubroutineDec(nextToken));
+            nextToken = nextTokenId("a subroutine or '}'");
+        }
+        if (nextToken != SYM_RIGHT_BRACE) {
+            throw unexpectedToken("a subroutine or '}'");
+        }
+        if (tokenizer.hasNextToken()) { // a file holds one class
+            tokenizer.getNextTokenId();
+            throw unexpectedToken("the end of the file");
+        }
+    }
+
+    /**
+     * Adds class level symbols (static and field variables) to the class symbol table
+     * @param varKind the "static" or "field" keyword, already read
+     */
+    private void compileClassVarDec(int varKind) {
+        String varType = pool.name(expectType("a type"));
+        SymbolKind symKind = varKind == KW_STATIC ? SymbolKind.STATIC : SymbolKind.FIELD;
+        int nextToken;
+        do {
+            classST.define(expectIdentifier("a variable name"), varType, symKind);
+            nextToken = nextTokenId("',' or ';'");
+        } while (nextToken == SYM_COMMA);
+        if (nextToken != SYM_SEMICOLON) {
+            throw unexpectedToken("',' or ';'");
+        }
+    }
+
+    /**
+     * Parses a subroutine declaration
+     * @param subroutineType the "constructor", "function" or "method" keyword, already read
+     * @return the subroutine node
+     */
+    private int parseSubroutineDec(int subroutineType) {
+        subroutineST.reset();
+        int returnType = nextTokenId("a return type");
+        if (returnType != KW_VOID && !isType(returnType)) {
+            throw unexpectedToken("a return type");
+        }
+        int subroutineName = expectIdentifier("a subroutine name");
+        // parameter list
+        expect(SYM_LEFT_PAREN);
+        int nextToken = nextTokenId("a type or ')'");
+        if (nextToken != SYM_RIGHT_PAREN) {
+            if (!isType(nextToken)) {
+                throw unexpectedToken("a type or ')'");
+            }
+            String varType = pool.name(nextToken);
+            while (true) {
+                subroutineST.define(expectIdentifier("a parameter name"), varType, SymbolKind.ARGUMENT);
+                nextToken = nextTokenId("',' or ')'");
+                if (nextToken != SYM_COMMA) {
+                    break;
+                }
+                varType = pool.name(expectType("a type"));
+            }
+            if (nextToken != SYM_RIGHT_PAREN) {
+                throw unexpectedToken("',' or ')'");
+            }
+        }
+        expect(SYM_LEFT_BRACE);
+        int numLocals = 0;
+        nextToken = nextTokenId("a statement or '}'");
+        while (nextToken == KW_VAR) {
+            String varType = pool.name(expectType("a type"));
+            do {
+                subroutineST.define(expectIdentifier("a variable name"), varType, SymbolKind.LOCAL);
+                numLocals++;
+                nextToken = nextTokenId("',' or ';'");
+            } while (nextToken == SYM_COMMA);
+            if (nextToken != SYM_SEMICOLON) {
+                throw unexpectedToken("',' or ';'");
+            }
+            nextToken = nextTokenId("a statement or '}'");
+        }
+        tokenizer.backTrack();
+        int subroutineNode = ast.add(AstPool.SUBROUTINE, subroutineName, numLocals, subroutineType);
+        parseStatementsInto(subroutineNode);
+        expect(SYM_RIGHT_BRACE);
+        return subroutineNode;
+    }
+
+    /**
+     * Parses zero or more statements into a new STATEMENTS node
+     * @return the STATEMENTS node
+     */
+    private int parseStatements() {
+        int statementsNode = ast.add(AstPool.STATEMENTS, 0, 0, 0);
+        parseStatementsInto(statementsNode);
+        return statementsNode;
+    }
+
+    /**
+     * Parses zero or more statements as the children of a node
+     * @param parent the node the statements belong to
+     */
+    private void parseStatementsInto(int parent) {
+        int lastStatement = AstPool.NO_NODE;
+        while (tokenizer.hasNextToken()) {
+            int nextToken = tokenizer.getNextTokenId();
+            int statement;
+            switch (nextToken) {
+                case KW_LET:
+                    statement = parseLetStatement();
+                    break;
+                case KW_IF:
+                    statement = parseIfStatement();
+                    break;
+                case KW_WHILE:
+                    statement = parseWhileStatement();
+                    break;
+                case KW_DO:
+                    statement = parseDoStatement();
+                    break;
+                case KW_RETURN:
+                    statement = parseReturnStatement();
+                    break;
+                default:
+                    tokenizer.backTrack();
+                    return;
+            }
+            lastStatement = ast.appendChild(parent, lastStatement, statement);
+        }
+    }
+
+    private int parseLetStatement() {
+        int varName = expectIdentifier("a variable name");
+        Symbol variable = lookUpSymbol(varName, tokenizer.getCurrentTokenStart());
+        int nextToken = nextTokenId("'[' or '='");
+        boolean isArray = nextToken == SYM_LEFT_BRACKET;
+        if (!isArray && nextToken != SYM_EQUALS) {
+            throw unexpectedToken("'[' or '='");
+        }
+        int letNode = ast.add(AstPool.LET, segmentOf(variable), variable.getNumKind(), isArray ? 1 : 0);
+        int lastChild = AstPool.NO_NODE;
+        if (isArray) {
+            lastChild = ast.appendChild(letNode, lastChild, parseExpression());
+            expect(SYM_RIGHT_BRACKET);
+            expect(SYM_EQUALS);
+        }
+        ast.appendChild(letNode, lastChild, parseExpression());
+        expect(SYM_SEMICOLON);
+        return letNode;
+    }
+
+    private int parseIfStatement() {
+        int ifNode = ast.add(AstPool.IF, 0, 0, 0);
+        expect(SYM_LEFT_PAREN);
+        int condition = ast.appendChild(ifNode, AstPool.NO_NODE, parseExpression());
+        expect(SYM_RIGHT_PAREN);
+        expect(SYM_LEFT_BRACE);
+        int thenStatements = ast.appendChild(ifNode, condition, parseStatements());
+        expect(SYM_RIGHT_BRACE);
+        int elseStatements = ast.add(AstPool.STATEMENTS, 0, 0, 0);
+        if (tokenizer.hasNextToken()) {
+            if (tokenizer.getNextTokenId() == KW_ELSE) {
+                expect(SYM_LEFT_BRACE);
+                parseStatementsInto(elseStatements);
+                expect(SYM_RIGHT_BRACE);
+            } else {
+                tokenizer.backTrack();
+            }
+        }
+        ast.appendChild(ifNode, thenStatements, elseStatements);
+        return ifNode;
+    }
+
+    private int parseWhileStatement() {
+        int whileNode = ast.add(AstPool.WHILE, 0, 0, 0);
+        expect(SYM_LEFT_PAREN);
+        int condition = ast.appendChild(whileNode, AstPool.NO_NODE, parseExpression());
+        expect(SYM_RIGHT_PAREN);
+        expect(SYM_LEFT_BRACE);
+        ast.appendChild(whileNode, condition, parseStatements());
+        expect(SYM_RIGHT_BRACE);
+        return whileNode;
+    }
+
+    /**
+     * Parses a do statement, whose term must be a subroutine call
+     * @return the DO node
+     */
+    private int parseDoStatement() {
+        int doNode = ast.add(AstPool.DO, 0, 0, 0);
+        int nextToken = expectIdentifier("a subroutine call");
+        int start = tokenizer.getCurrentTokenStart();
+        tokenizer.backTrack();
+        int call = parseTerm();
+        if (ast.kind(call) != AstPool.CALL) {
+            throw new CompileError(locate(new Diagnostic(Diagnostic.Kind.SYNTAX_ERROR, start,
+                    "Expected a subroutine call but found '" + pool.name(nextToken) + "'")));
+        }
+        ast.appendChild(doNode, AstPool.NO_NODE, call);
+        expect(SYM_SEMICOLON);
+        return doNode;
+    }
+
+    private int parseReturnStatement() {
+        int returnNode = ast.add(AstPool.RETURN, 0, 0, 0);
+        if (nextTokenId("an expression or ';'") != SYM_SEMICOLON) {
+            tokenizer.backTrack();
+            ast.appendChild(returnNode, AstPool.NO_NODE, parseExpression());
+            expect(SYM_SEMICOLON);
+        }
+        return returnNode;
+    }
+
+    /**
+     * Parses an expression, a chain of terms joined by binary operators
+     * @return the expression node
+     */
+    private int parseExpression() {
+        return parseExpression(true);
+    }
+
+    /**
+     * Parses a Jack term
+     * @return the term node
+     */
+    private int parseTerm() {
+        return parseExpression(false);
+    }
+
+    // what an unfinished construct on the expression stack is waiting for, see parseExpression(boolean).
+    // A frame is four ints: its kind, a node, a child and a count
+    private static final int FRAME_OPERAND = 0; // node: the chain so far; child: left operand of a pending BINARY
+    private static final int FRAME_PARENTHESES = 1; // the expression inside ( )
+    private static final int FRAME_UNARY = 2; // node: the UNARY node waiting for its operand
+    private static final int FRAME_ARRAY_INDEX = 3; // node: the ARRAY_ACCESS node waiting for its index
+    private static final int FRAME_ARGUMENT = 4; // node: the CALL node; child: its last child; count: its arguments
+    private static final int FRAME_SIZE = 4;
+
+    private int[] frames = new int[16 * FRAME_SIZE]; // the expression stack, reused by every expression
+    private int top = 0; // index past the topmost frame
+
+    /**
+     * Parses an expression or a single term without recursing, the same way main.Parser does: every
+     * parenthesis, unary operator, array index and argument list that is still open is a frame on an int
+     * stack, and a finished term is handed to the frames waiting for it until one of them needs more tokens
+     * @param wholeExpression true to parse a chain of terms joined by binary operators, false for one term
+     * @return the expression or term node
+     */
+    private int parseExpression(boolean wholeExpression) {
+        int base = top;
+        if (wholeExpression) {
+            pushFrame(FRAME_OPERAND, AstPool.NO_NODE, AstPool.NO_NODE, 0);
+        }
+        while (true) {
+            int term = parseTermStart();
+            if (term == AstPool.NO_NODE) { // the term opened a frame, its contents come next
+                continue;
+            }
+            reduce:
+            while (true) {
+                if (top == base) { // a single term was asked for
+                    return term;
+                }
+                int frame = top - FRAME_SIZE;
+                if (frames[frame] == FRAME_UNARY) {
+                    top = frame;
+                    ast.appendChild(frames[frame + 1], AstPool.NO_NODE, term);
+                    term = frames[frame + 1];
+                    continue;
+                }
+                // FRAME_OPERAND, the term extends the chain of binary operators
+                if (frames[frame + 2] == AstPool.NO_NODE) {
+                    frames[frame + 1] = term;
+                } else {
+                    ast.appendChild(frames[frame + 1], frames[frame + 2], term);
+                    frames[frame + 2] = AstPool.NO_NODE;
+                }
+                if (tokenizer.hasNextToken()) {
+                    int nextToken = tokenizer.getNextTokenId();
+                    if (isBinaryOp(nextToken)) {
+                        int binaryNode = ast.add(AstPool.BINARY, nextToken, 0, 0);
+                        frames[frame + 2] = ast.appendChild(binaryNode, AstPool.NO_NODE, frames[frame + 1]);
+                        frames[frame + 1] = binaryNode;
+                        break; // parse the right operand
+                    }
+                    tokenizer.backTrack();
+                }
+                // the expression is complete, hand it to the construct it is nested in
+                top = frame;
+                int expression = frames[frame + 1];
+                if (top == base) {
+                    return expression;
+                }
+                int parent = top - FRAME_SIZE;
+                switch (frames[parent]) {
+                    case FRAME_PARENTHESES:
+                        top = parent;
+                        expect(SYM_RIGHT_PAREN);
+                        term = expression;
+                        continue reduce;
+                    case FRAME_ARRAY_INDEX:
+                        top = parent;
+                        expect(SYM_RIGHT_BRACKET);
+                        ast.appendChild(frames[parent + 1], AstPool.NO_NODE, expression);
+                        term = frames[parent + 1];
+                        continue reduce;
+                    default: // FRAME_ARGUMENT
+                        int callNode = frames[parent + 1];
+                        frames[parent + 2] = ast.appendChild(callNode, frames[parent + 2], expression);
+                        frames[parent + 3]++;
+                        if (tokenizer.hasNextToken()) {
+                            if (tokenizer.getNextTokenId() == SYM_COMMA) {
+                                pushFrame(FRAME_OPERAND, AstPool.NO_NODE, AstPool.NO_NODE, 0);
+                                break reduce; // parse the next argument
+                            }
+                            tokenizer.backTrack();
+                        }
+                        top = parent;
+                        expect(SYM_RIGHT_PAREN);
+                        ast.setOperands(callNode, ast.operand(callNode), ast.operand2(callNode), frames[parent + 3]);
+                        term = callNode;
+                }
+            }
+        }
+    }
+
+    private void pushFrame(int kind, int node, int child, int count) {
+        if (top == frames.length) {
+            frames = Arrays.copyOf(frames, top * 2);
+        }
+        frames[top] = kind;
+        frames[top + 1] = node;
+        frames[top + 2] = child;
+        frames[top + 3] = count;
+        top += FRAME_SIZE;
+    }
+
+    /**
+     * Parses the tokens a term starts with. A term without nested expressions is returned whole, any
+     * other term pushes the frames for its nested expression instead
+     * @return the term node, NO_NODE if it pushed frames
+     */
+    private int parseTermStart() {
+        int nextToken = nextTokenId("a term");
+        TokenKind kind = tokenizer.getCurrentKind();
+        if (kind == TokenKind.INT_CONST) {
+            return ast.add(AstPool.INT_CONST, tokenizer.getCurrentIntValue(), 0, 0);
+        } else if (kind == TokenKind.STRING_CONST) {
+            return ast.add(AstPool.STRING_CONST, tokenizer.getCurrentTokenStart(), tokenizer.getCurrentTokenEnd(), 0);
+        } else if (kind == TokenKind.KEYWORD) {
+            if (nextToken != KW_TRUE && nextToken != KW_FALSE && nextToken != KW_NULL && nextToken != KW_THIS) {
+                throw unexpectedToken("a term");
+            }
+            return ast.add(AstPool.KEYWORD_CONST, nextToken, 0, 0);
+        } else if (nextToken == SYM_LEFT_PAREN) { // (expression)
+            pushFrame(FRAME_PARENTHESES, AstPool.NO_NODE, AstPool.NO_NODE, 0);
+            pushFrame(FRAME_OPERAND, AstPool.NO_NODE, AstPool.NO_NODE, 0);
+            return AstPool.NO_NODE;
+        } else if (kind == TokenKind.SYMBOL) { // unaryOp
+            if (nextToken != SYM_MINUS && nextToken != SYM_TILDE) {
+                throw unexpectedToken("a term");
+            }
+            pushFrame(FRAME_UNARY, ast.add(AstPool.UNARY, nextToken, 0, 0), AstPool.NO_NODE, 0);
+            return AstPool.NO_NODE;
+        }
+        // either just varName, array access or subroutine call
+        int identifierStart = tokenizer.getCurrentTokenStart();
+        if (!tokenizer.hasNextToken()) {
+            return variableNode(AstPool.VARIABLE, lookUpSymbol(nextToken, identifierStart));
+        }
+        int nextNextToken = tokenizer.getNextTokenId();
+        if (nextNextToken == SYM_LEFT_BRACKET) { // array access
+            int arrayNode = variableNode(AstPool.ARRAY_ACCESS, lookUpSymbol(nextToken, identifierStart));
+            pushFrame(FRAME_ARRAY_INDEX, arrayNode, AstPool.NO_NODE, 0);
+            pushFrame(FRAME_OPERAND, AstPool.NO_NODE, AstPool.NO_NODE, 0);
+            return AstPool.NO_NODE;
+        } else if (nextNextToken == SYM_LEFT_PAREN || nextNextToken == SYM_DOT) { // subroutine call
+            return parseSubroutineCallStart(nextToken, nextNextToken);
+        }
+        int variableNode = variableNode(AstPool.VARIABLE, lookUpSymbol(nextToken, identifierStart));
+        tokenizer.backTrack(); // spit out the nextNextToken
+        return variableNode;
+    }
+
+    /**
+     * Parses a subroutine call up to its first argument, the receiver of a method call becomes the first
+     * child of the call
+     * @param nextToken the identifier the call starts with
+     * @param nextNextToken the token after it, either ( or .
+     * @return the call node if the call has no arguments, NO_NODE if it pushed the frames for its first argument
+     */
+    private int parseSubroutineCallStart(int nextToken, int nextNextToken) {
+        int className;
+        int subroutineName;
+        int receiver = AstPool.NO_NODE;
+        if (nextNextToken == SYM_DOT) { // not a method in the same class
+            Symbol symbol = subroutineST.get(nextToken);
+            if (symbol == null) {
+                symbol = classST.get(nextToken);
+            }
+            if (symbol != null) { // method call on an object
+                className = pool.intern(symbol.getDataType());
+                receiver = variableNode(AstPool.VARIABLE, symbol);
+            } else { // function call
+                className = nextToken;
+            }
+            subroutineName = expectIdentifier("a subroutine name");
+            expect(SYM_LEFT_PAREN);
+        } else { // method in the same class
+            className = currentClassName;
+            subroutineName = nextToken;
+            receiver = ast.add(AstPool.KEYWORD_CONST, KW_THIS, 0, 0);
+        }
+        int callNode = ast.add(AstPool.CALL, className, subroutineName, 0);
+        int lastChild = AstPool.NO_NODE;
+        int numArgs = 0;
+        if (receiver != AstPool.NO_NODE) {
+            lastChild = ast.appendChild(callNode, lastChild, receiver);
+            numArgs++;
+        }
+        if (nextTokenId("an expression or ')'") == SYM_RIGHT_PAREN) { // empty expression list
+            ast.setOperands(callNode, className, subroutineName, numArgs);
+            return callNode;
+        }
+        tokenizer.backTrack();
+        pushFrame(FRAME_ARGUMENT, callNode, lastChild, numArgs);
+        pushFrame(FRAME_OPERAND, AstPool.NO_NODE, AstPool.NO_NODE, 0);
+        return AstPool.NO_NODE;
+    }
+
+    private int variableNode(int kind, Symbol variable) {
+        return ast.add(kind, segmentOf(variable), variable.getNumKind(), 0);
+    }
+
+    private static int segmentOf(Symbol symbol) {
+        return AstCodeGenerator.getSymbolMemSeg(symbol).ordinal();
+    }
+}
@@ -0,0 +1,232 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Per compilation pool that interns every keyword, symbol and identifier into a dense int ID, so the
+ * main.Parser and the symbol tables can compare ints and index arrays instead of hashing Strings.
+ * Keywords and symbols always get the fixed IDs below, identifiers get the IDs after them
+ */
+public class InternPool {
+
+    public static final int NO_ID = -1; // integer and string constants are not interned
+
+    // keywords
+    public static final int KW_CLASS = 0;
+    public static final int KW_CONSTRUCTOR = 1;
+    public static final int KW_FUNCTION = 2;
+    public static final int KW_METHOD = 3;
+    public static final int KW_FIELD = 4;
+    public static final int KW_STATIC = 5;
+    public static final int KW_VAR = 6;
+    public static final int KW_INT = 7;
+    public static final int KW_CHAR = 8;
+    public static final int KW_BOOLEAN = 9;
+    public static final int KW_VOID = 10;
+    public static final int KW_TRUE = 11;
+    public static final int KW_FALSE = 12;
+    public static final int KW_NULL = 13;
+    public static final int KW_THIS = 14;
+    public static final int KW_LET = 15;
+    public static final int KW_DO = 16;
+    public static final int KW_IF = 17;
+    public static final int KW_ELSE = 18;
+    public static final int KW_WHILE = 19;
+    public static final int KW_RETURN = 20;
+    // symbols
+    public static final int SYM_LEFT_BRACE = 21;
+    public static final int SYM_RIGHT_BRACE = 22;
+    public static final int SYM_LEFT_PAREN = 23;
+    public static final int SYM_RIGHT_PAREN = 24;
+    public static final int SYM_LEFT_BRACKET = 25;
+    public static final int SYM_RIGHT_BRACKET = 26;
+    public static final int SYM_DOT = 27;
+    public static final int SYM_COMMA = 28;
+    public static final int SYM_SEMICOLON = 29;
+    public static final int SYM_PLUS = 30;
+    public static final int SYM_MINUS = 31;
+    public static final int SYM_ASTERISK = 32;
+    public static final int SYM_SLASH = 33;
+    public static final int SYM_AMPERSAND = 34;
+    public static final int SYM_PIPE = 35;
+    public static final int SYM_LESS_THAN = 36;
+    public static final int SYM_GREATER_THAN = 37;
+    public static final int SYM_EQUALS = 38;
+    public static final int SYM_TILDE = 39;
+
+    public static final int NUM_KEYWORDS = 21;
+    public static final int NUM_FIXED_IDS = 40; // first ID handed out to an identifier
+
+    // the names of the fixed IDs, in ID order
+    private static final String[] FIXED_NAMES = {
+            "class", "constructor", "function", "method", "field", "static", "var", "int", "char",
+            "boolean", "void", "true", "false", "null", "this", "let", "do", "if", "else", "while", "return",
+            "{", "}", "(", ")", "[", "]", ".", ",", ";", "+", "-", "*", "/", "&", "|", "<", ">", "=", "~"
+    };
+
+    // ID of each symbol character, NO_ID for characters that are not symbols
+    private static final int[] SYMBOL_IDS = new int[128];
+
+    static {
+        Arrays.fill(SYMBOL_IDS, NO_ID);
+        for (int id = NUM_KEYWORDS; id < NUM_FIXED_IDS; id++) {
+            SYMBOL_IDS[FIXED_NAMES[id].charAt(0)] = id;
+        }
+    }
+
+    private String[] names; // name of each ID
+    private int[] hashes; // hash of each ID's name
+    private int size; // number of IDs handed out
+    private int[] slots; // open addressing hash table of ID + 1, 0 marks an empty slot
+
+    public InternPool() {
+        this.names = new String[256];
+        this.hashes = new int[256];
+        this.slots = new int[512];
+        this.size = 0;
+        for (String fixedName : FIXED_NAMES) {
+            intern(fixedName);
+        }
+    }
+
+    /**
+     * Returns the fixed ID of a symbol character
+     * @param c the symbol character
+     * @return the ID of the symbol, or NO_ID if c is not a symbol
+     */
+    public static int symbolId(char c) {
+        return c < SYMBOL_IDS.length ? SYMBOL_IDS[c] : NO_ID;
+    }
+
+    public static boolean isKeyword(int id) {
+        return id >= 0 && id < NUM_KEYWORDS;
+    }
+
+    /**
+     * Checks if an ID is a binary operator symbol
+     * @param id the ID to check
+     * @return true if the ID is one of + - * / & | < > =
+     */
+    public static boolean isBinaryOp(int id) {
+        return id >= SYM_PLUS && id <= SYM_EQUALS;
+    }
+
+    /**
+     * Interns a name read from the source code without materializing it, unless it is new to the pool
+     * @param source the ASCII source code
+     * @param start offset of the first byte of the name
+     * @param end offset one past the last byte of the name
+     * @return the ID of the name
+     */
+    public int intern(ByteBuffer source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + (source.get(i) & 0xFF);
+        }
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int length = end - start;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(names[id], source, start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] bytes = new byte[length];
+        source.get(start, bytes);
+        return add(new String(bytes, StandardCharsets.ISO_8859_1), hash, slot);
+    }
+
+    /**
+     * Interns a name
+     * @param name the name to intern
+     * @return the ID of the name
+     */
+    public int intern(String name) {
+        int hash = name.hashCode(); // same as hashing the ASCII bytes
+        int slot = find(name, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        return add(name, hash, slot);
+    }
+
+    /**
+     * Looks up the ID of a name without interning it
+     * @param name the name to look up
+     * @return the ID of the name, or NO_ID if it was never interned
+     */
+    public int lookUp(String name) {
+        int slot = find(name, name.hashCode());
+        return slots[slot] - 1;
+    }
+
+    /**
+     * Returns the name of an ID
+     * @param id the ID
+     * @return the name of the ID
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(String name, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int add(String name, int hash, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        size++;
+        if (size * 2 > slots.length) { // keep the load factor at or below one half
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private static boolean matches(String name, ByteBuffer source, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != (source.get(start + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
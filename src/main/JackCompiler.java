@@ -1,35 +1,321 @@
 package main;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class JackCompiler {
 
+    private static final String USAGE =
+            "Usage: java main.JackCompiler [-j threads] [-r] [-s] [-c] [-b] [-O] inputFile\n" +
+            "  -j threads  number of files compiled at once, defaults to the number of processors\n" +
+            "  -r          also compile the .jack files in subdirectories\n" +
+            "  -s          also compile the subroutines of each class in parallel\n" +
+            "  -c          only check the files for errors, no .vm files are written\n" +
+            "  -b          write binary .vmb files instead of .vm files\n" +
+            "  -O          optimize the VM code and print how many instructions each file saves";
+
+    // source files from this size on are parsed into a main.FlatParser's node pool, which allocates about
+    // half as much as main.Parser's node objects, e.g. 155 MB instead of 306 MB for an 11 MB class
+    private static final long FLAT_PARSER_MIN_LENGTH = 1 << 20;
+
+    /**
+     * Produces the problems of one file
+     */
+    private interface FileTask {
+        List<String> run(File jackFile) throws IOException;
+    }
+
     public static void main(String[] args) throws IOException {
-        if (args.length != 1) {
-            System.out.println("Usage: java VMTranslator inputFile");
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        boolean recursive = false;
+        boolean splitClasses = false;
+        boolean checkOnly = false;
+        boolean binary = false;
+        boolean optimize = false;
+        String inputFilePath = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                try {
+                    numThreads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    numThreads = 0;
+                }
+            } else if (args[i].equals("-r")) {
+                recursive = true;
+            } else if (args[i].equals("-s")) {
+                splitClasses = true;
+            } else if (args[i].equals("-c")) {
+                checkOnly = true;
+            } else if (args[i].equals("-b")) {
+                binary = true;
+            } else if (args[i].equals("-O")) {
+                optimize = true;
+            } else if (inputFilePath == null && !args[i].startsWith("-")) {
+                inputFilePath = args[i];
+            } else {
+                inputFilePath = null;
+                break;
+            }
+        }
+        if (inputFilePath == null || numThreads < 1) {
+            System.out.println(USAGE);
             return;
         }
         // note that the "file" in inputFilePath is used interchangeably with directory
-        String inputFilePath = args[0];
         // if the input file is a directory and its path ends with the separator,
         // truncate it
-        if (inputFilePath.charAt(inputFilePath.length() - 1) == File.separatorChar) {
+        if (inputFilePath.length() > 1 && inputFilePath.charAt(inputFilePath.length() - 1) == File.separatorChar) {
             inputFilePath = inputFilePath.substring(0, inputFilePath.length() - 1);
         }
-        File inputFile = new File(inputFilePath);
-        File[] filesToTranslate;
+        List<File> jackFiles = findJackFiles(new File(inputFilePath), recursive);
+        List<String> reports = new ArrayList<>();
+        List<String> failures = checkOnly ? checkAll(jackFiles, numThreads)
+                : compileAll(jackFiles, numThreads, splitClasses, binary, optimize, reports);
+        for (String report : reports) {
+            System.out.println(report);
+        }
+        for (String failure : failures) {
+            System.err.println(failure);
+        }
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Finds the Jack source code files to compile, in a stable order
+     * @param inputFile a .jack file or a directory
+     * @param recursive true to also search the subdirectories of a directory
+     * @return the .jack files, sorted by path within each directory
+     */
+    public static List<File> findJackFiles(File inputFile, boolean recursive) {
+        List<File> jackFiles = new ArrayList<>();
         if (inputFile.isDirectory()) {
-            filesToTranslate = inputFile.listFiles();
-        } else {
-            filesToTranslate = new File[1];
-            filesToTranslate[0] = inputFile;
+            addJackFiles(inputFile, recursive, jackFiles);
+        } else if (inputFile.getName().endsWith(".jack")) {
+            jackFiles.add(inputFile);
+        }
+        return jackFiles;
+    }
+
+    private static void addJackFiles(File directory, boolean recursive, List<File> jackFiles) {
+        File[] files = directory.listFiles();
+        if (files == null) { // not readable
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (recursive) {
+                    addJackFiles(file, true, jackFiles);
+                }
+            } else if (file.getName().endsWith(".jack")) {
+                jackFiles.add(file);
+            }
+        }
+    }
+
+    /**
+     * Compiles Jack source code files concurrently on a bounded pool of threads, each into a .vm or .vmb
+     * file next to it. The largest files are started first so that one big class does not start last and
+     * hold up the whole batch. A file that fails to compile does not stop the others
+     * @param jackFiles the files to compile
+     * @param numThreads the number of files compiled at once
+     * @param splitClasses true to also compile the subroutines of each class in parallel
+     * @param binary true to write binary .vmb files instead of .vm files
+     * @param optimize true to optimize the VM code
+     * @return one message per file that failed to compile, in the order of jackFiles
+     */
+    public static List<String> compileAll(List<File> jackFiles, int numThreads, boolean splitClasses,
+                                          boolean binary, boolean optimize) {
+        return compileAll(jackFiles, numThreads, splitClasses, binary, optimize, new ArrayList<>());
+    }
+
+    /**
+     * Compiles Jack source code files like compileAll, also collecting how many VM instructions the
+     * optimizer removed from each file
+     * @param jackFiles the files to compile
+     * @param numThreads the number of files compiled at once
+     * @param splitClasses true to also compile the subroutines of each class in parallel
+     * @param binary true to write binary .vmb files instead of .vm files
+     * @param optimize true to optimize the VM code
+     * @param reports receives one report per optimized file, in the order of jackFiles
+     * @return one message per file that failed to compile, in the order of jackFiles
+     */
+    public static List<String> compileAll(List<File> jackFiles, int numThreads, boolean splitClasses,
+                                          boolean binary, boolean optimize, List<String> reports) {
+        Map<File, String> fileReports = new ConcurrentHashMap<>();
+        List<String> failures = runAll(jackFiles, numThreads, jackFile -> {
+            String report = compile(jackFile, splitClasses, binary, optimize);
+            if (report != null) {
+                fileReports.put(jackFile, report);
+            }
+            return Collections.emptyList();
+        });
+        for (File jackFile : jackFiles) {
+            String report = fileReports.get(jackFile);
+            if (report != null) {
+                reports.add(report);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Checks Jack source code files concurrently for syntax errors and undefined symbols, without
+     * generating VM code or writing any file
+     * @param jackFiles the files to check
+     * @param numThreads the number of files checked at once
+     * @return one message per problem found, as path:line:column: message, in the order of jackFiles
+     */
+    public static List<String> checkAll(List<File> jackFiles, int numThreads) {
+        return runAll(jackFiles, numThreads, jackFile -> {
+            List<String> problems = new ArrayList<>();
+            for (Diagnostic diagnostic : new Parser(jackFile).check()) {
+                problems.add(jackFile + ":" + diagnostic);
+            }
+            return problems;
+        });
+    }
+
+    /**
+     * Runs a task over files on a bounded pool of threads, largest files first, a task that fails does
+     * not stop the others
+     * @param jackFiles the files to run the task over
+     * @param numThreads the number of files processed at once
+     * @param task the task, returns the problems of a file
+     * @return the problems of all files, in the order of jackFiles
+     */
+    private static List<String> runAll(List<File> jackFiles, int numThreads, FileTask task) {
+        List<File> largestFirst = new ArrayList<>(jackFiles);
+        largestFirst.sort(Comparator.comparingLong(File::length).reversed());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        Map<File, Future<List<String>>> results = new HashMap<>();
+        for (File jackFile : largestFirst) {
+            results.put(jackFile, executor.submit(() -> task.run(jackFile)));
+        }
+        executor.shutdown();
+        List<String> failures = new ArrayList<>();
+        for (File jackFile : jackFiles) {
+            try {
+                failures.addAll(results.get(jackFile).get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CompileError) {
+                    failures.add(jackFile + ":" + ((CompileError) e.getCause()).getDiagnostic());
+                } else {
+                    failures.add(jackFile + ": " + e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.add(jackFile + ": interrupted");
+            }
         }
-        for (File jackFile : filesToTranslate) {
-            if (jackFile.toString().endsWith(".jack")) {
-                Parser parser = new Parser(jackFile);
-                parser.parse();
+        return failures;
+    }
+
+    /**
+     * Compiles one Jack source code file into the .vm or .vmb file next to it, the file is only written
+     * once the whole class compiled
+     * @param jackFile the Jack source code file
+     * @param splitClasses true to compile the subroutines of the class in parallel
+     * @param binary true to write a binary .vmb file
+     * @param optimize true to optimize the VM code
+     * @return how many instructions the optimizer removed, null if the code was not optimized
+     * @throws IOException IOException
+     */
+    private static String compile(File jackFile, boolean splitClasses, boolean binary, boolean optimize)
+            throws IOException {
+        String path = jackFile.getPath();
+        String outputPath = path.substring(0, path.lastIndexOf('.'));
+        if (binary) {
+            VmProgram program = new VmProgram();
+            String report = compile(jackFile, program, splitClasses, optimize);
+            try (OutputFile output = new OutputFile(new File(outputPath + ".vmb"))) {
+                program.writeBinary(new BufferedOutputStream(output.getStream()));
+                output.commit();
             }
+            return report;
+        }
+        if (optimize || !splitClasses) {
+            try (OutputFile output = new OutputFile(new File(outputPath + ".vm"))) {
+                VmEmitter emitter = new VmEmitter(output.getStream());
+                String report = compile(jackFile, emitter, splitClasses, optimize);
+                emitter.flush();
+                output.commit();
+                return report;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        TokenTable table = ParallelLexer.tokenize(Lexer.mapFile(jackFile), new InternPool());
+        try (OutputFile output = new OutputFile(new File(outputPath + ".vm"))) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output.getStream(), StandardCharsets.US_ASCII));
+            ParallelClassCompiler.compileClass(table, writer);
+            writer.flush();
+            output.commit();
+        }
+        return null;
+    }
+
+    /**
+     * Compiles one Jack source code file into a writer, large files with a main.FlatParser
+     * @param jackFile the Jack source code file
+     * @param out where to write the VM instructions to
+     * @param splitClasses true to compile the subroutines of the class in parallel
+     * @param optimize true to optimize the VM code
+     * @return how many instructions the optimizer removed or added, null if the code was not optimized
+     * @throws IOException IOException
+     */
+    private static String compile(File jackFile, VmWriter out, boolean splitClasses, boolean optimize)
+            throws IOException {
+        if (!optimize) {
+            compileClass(jackFile, out, splitClasses);
+            return null;
+        }
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(out);
+        compileClass(jackFile, optimizer, splitClasses);
+        optimizer.flush();
+        int removed = optimizer.getNumRemoved();
+        if (removed >= 0) {
+            return jackFile + ": removed " + removed + " of " + optimizer.getNumReceived() + " VM instructions";
+        }
+        // multiplications inlined as additions take more instructions than the calls
+        return jackFile + ": added " + -removed + " to " + optimizer.getNumReceived() + " VM instructions";
+    }
+
+    /**
+     * Compiles the class of one Jack source code file into a writer, with the parser that suits its size
+     * unless its subroutines are compiled in parallel
+     * @param jackFile the Jack source code file
+     * @param out where to write the VM instructions to
+     * @param splitClasses true to compile the subroutines of the class in parallel
+     * @throws IOException IOException
+     */
+    private static void compileClass(File jackFile, VmWriter out, boolean splitClasses) throws IOException {
+        if (splitClasses) {
+            ParallelClassCompiler.compileClass(ParallelLexer.tokenize(Lexer.mapFile(jackFile), new InternPool()), out);
+        } else if (jackFile.length() >= FLAT_PARSER_MIN_LENGTH) {
+            new FlatParser(jackFile).compileClass(out);
+        } else {
+            new Parser(jackFile).compileClass(out);
         }
     }
 }
@@ -0,0 +1,334 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Single pass, character level state machine that splits ASCII Jack source code into tokens.
+ * Only token boundaries and kinds are produced, the text is materialized by the callers on demand
+ */
+public class Lexer {
+
+    // states of the lexer's finite automaton
+    private enum LexState {
+        START, // between tokens
+        IDENTIFIER, // inside an identifier or keyword
+        INT_CONST, // inside an integer constant
+        STRING_CONST, // inside a string literal, after the opening quote
+        SLASH, // seen a '/', may be division or the start of a comment
+        LINE_COMMENT, // inside a // comment
+        BLOCK_COMMENT // inside a /* */ or /** */ comment
+    }
+
+    // skips whitespace and comments in bulk, vectorized when the Vector API is available
+    private static final ByteScanner SCANNER = ByteScanner.create();
+
+    // single character tokens are shared instead of being materialized over and over
+    private static final String[] SINGLE_CHAR_TOKENS = new String[128];
+
+    static {
+        for (char c = 0; c < SINGLE_CHAR_TOKENS.length; c++) {
+            SINGLE_CHAR_TOKENS[c] = String.valueOf(c);
+        }
+    }
+
+    private final ByteBuffer source; // the ASCII source code
+    private final InternPool pool; // interns keywords and identifiers as they are lexed
+    private final int limit; // offset one past the last byte to lex
+    private int position; // offset of the next byte to be lexed
+    private boolean insideBlockComment; // whether lexing stopped, or is to resume, inside a block comment
+    private int tokenStart; // offset of the first byte of the last lexed token
+    private int tokenEnd; // offset one past the last byte of the last lexed token
+    private TokenKind tokenKind; // kind of the last lexed token
+    private int tokenId; // interned ID of the last lexed token, NO_ID for constants
+    private int intValue; // value of the last lexed token if it is an integer constant
+
+    /**
+     * Initializes a main.Lexer over the whole of a source buffer
+     * @param source the ASCII Jack source code
+     * @param pool the pool to intern keywords and identifiers into
+     */
+    public Lexer(ByteBuffer source, InternPool pool) {
+        this(source, pool, 0);
+    }
+
+    /**
+     * Initializes a main.Lexer that starts lexing part way through a source buffer. The start position
+     * must not be inside a comment or a token
+     * @param source the ASCII Jack source code
+     * @param pool the pool to intern keywords and identifiers into
+     * @param position offset of the first byte to lex
+     */
+    public Lexer(ByteBuffer source, InternPool pool, int position) {
+        this(source, pool, position, source.limit(), false);
+    }
+
+    /**
+     * Initializes a main.Lexer over a chunk of a source buffer, used to lex chunks of one file independently
+     * @param source the ASCII Jack source code
+     * @param pool the pool to intern keywords and identifiers into
+     * @param position offset of the first byte of the chunk, must not be inside a token
+     * @param limit offset one past the last byte of the chunk, must not be inside a token
+     * @param insideBlockComment whether the chunk starts inside a block comment
+     */
+    public Lexer(ByteBuffer source, InternPool pool, int position, int limit, boolean insideBlockComment) {
+        this.source = source;
+        this.pool = pool;
+        this.limit = limit;
+        this.position = position;
+        this.insideBlockComment = insideBlockComment;
+    }
+
+    /**
+     * Memory maps a Jack source code file. The mapping stays valid after the file is closed
+     * @param sourceFile the Jack source code file
+     * @return a read-only buffer over the contents of the file
+     * @throws IOException IOException
+     */
+    public static ByteBuffer mapFile(File sourceFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Lexes the next token starting from the current position, skipping whitespace and comments
+     * @return true if a token was found, false if the end of the source was reached
+     */
+    public boolean next() {
+        ByteBuffer source = this.source;
+        LexState state = insideBlockComment ? LexState.BLOCK_COMMENT : LexState.START;
+        insideBlockComment = false;
+        int tokenStart = 0;
+        int value = 0;
+        int length = this.limit;
+        int i = this.position;
+        ByteScanner scanner = SCANNER;
+        while (i < length) {
+            char c = (char) (source.get(i) & 0xFF);
+            switch (state) {
+                case START:
+                    tokenStart = i;
+                    if (c <= ' ') {
+                        i++;
+                        // single spaces are the common case, only hand longer runs (indentation) to the scanner
+                        if (i < length && (source.get(i) & 0xFF) <= ' ') {
+                            i = scanner.skipWhitespace(source, i, length);
+                        }
+                        break;
+                    } else if (isIdentifierStart(c)) {
+                        state = LexState.IDENTIFIER;
+                    } else if (isDigit(c)) {
+                        state = LexState.INT_CONST;
+                        value = c - '0';
+                    } else if (c == '"') {
+                        state = LexState.STRING_CONST;
+                    } else if (c == '/') {
+                        state = LexState.SLASH;
+                    } else if (InternPool.symbolId(c) != InternPool.NO_ID) {
+                        return emit(i, i + 1, TokenKind.SYMBOL, InternPool.symbolId(c));
+                    } // anything else is an illegal character, skip it
+                    i++;
+                    break;
+                case IDENTIFIER:
+                    if (!isIdentifierPart(c)) {
+                        return emitIdentifier(tokenStart, i);
+                    }
+                    i++;
+                    break;
+                case INT_CONST:
+                    if (!isDigit(c)) {
+                        return emitIntConst(tokenStart, i, value);
+                    }
+                    value = value * 10 + (c - '0');
+                    i++;
+                    break;
+                case STRING_CONST:
+                    if (c == '"') { // keep the quotes, the main.Parser strips them
+                        return emit(tokenStart, i + 1, TokenKind.STRING_CONST, InternPool.NO_ID);
+                    } else if (c == '\n' || c == '\r') { // unterminated string literal
+                        return emit(tokenStart, i, TokenKind.STRING_CONST, InternPool.NO_ID);
+                    }
+                    i++;
+                    break;
+                case SLASH:
+                    if (c == '/') {
+                        state = LexState.LINE_COMMENT;
+                    } else if (c == '*') {
+                        state = LexState.BLOCK_COMMENT;
+                    } else { // just a division symbol
+                        return emit(tokenStart, tokenStart + 1, TokenKind.SYMBOL, InternPool.SYM_SLASH);
+                    }
+                    i++;
+                    break;
+                case LINE_COMMENT:
+                    int lineEnd = scanner.indexOfLineEnd(source, i, length);
+                    if (lineEnd < 0) {
+                        i = length;
+                    } else {
+                        state = LexState.START;
+                        i = lineEnd + 1;
+                    }
+                    break;
+                case BLOCK_COMMENT:
+                    int commentEnd = scanner.indexOfBlockCommentEnd(source, i, length);
+                    if (commentEnd < 0) { // the comment runs to the end of the source
+                        i = length;
+                    } else {
+                        state = LexState.START;
+                        i = commentEnd + 2;
+                    }
+                    break;
+            }
+        }
+        this.position = length;
+        this.insideBlockComment = state == LexState.BLOCK_COMMENT;
+        // flush a token that runs up to the end of the source
+        switch (state) {
+            case IDENTIFIER:
+                return emitIdentifier(tokenStart, length);
+            case INT_CONST:
+                return emitIntConst(tokenStart, length, value);
+            case STRING_CONST:
+                return emit(tokenStart, length, TokenKind.STRING_CONST, InternPool.NO_ID);
+            case SLASH:
+                return emit(tokenStart, tokenStart + 1, TokenKind.SYMBOL, InternPool.SYM_SLASH);
+            default:
+                return false;
+        }
+    }
+
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    public int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    public TokenKind getTokenKind() {
+        return tokenKind;
+    }
+
+    public int getTokenId() {
+        return tokenId;
+    }
+
+    public int getIntValue() {
+        return intValue;
+    }
+
+    /**
+     * Tells if the source ended inside a block comment, valid once next has returned false
+     * @return true if the last block comment was not closed
+     */
+    public boolean isInsideBlockComment() {
+        return insideBlockComment;
+    }
+
+    /**
+     * Materializes the text of a token
+     * @param source the source code the token was lexed from
+     * @param start offset of the first byte of the token
+     * @param end offset one past the last byte of the token
+     * @return the text of the token
+     */
+    public static String text(ByteBuffer source, int start, int end) {
+        int length = end - start;
+        if (length == 1) {
+            int c = source.get(start) & 0x7F;
+            return SINGLE_CHAR_TOKENS[c];
+        }
+        byte[] bytes = new byte[length];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Records the last lexed token and moves past it
+     * @param start offset of the first byte of the token
+     * @param end offset one past the last byte of the token
+     * @param kind the kind of the token
+     * @param id the interned ID of the token
+     * @return true, for convenience of the caller
+     */
+    private boolean emit(int start, int end, TokenKind kind, int id) {
+        this.tokenStart = start;
+        this.tokenEnd = end;
+        this.tokenKind = kind;
+        this.tokenId = id;
+        this.position = end;
+        return true;
+    }
+
+    /**
+     * Records an integer constant, parsed while it was lexed, as the last lexed token
+     * @param start offset of the first byte of the token
+     * @param end offset one past the last byte of the token
+     * @param value the value of the constant
+     * @return true, for convenience of the caller
+     */
+    private boolean emitIntConst(int start, int end, int value) {
+        this.intValue = value;
+        return emit(start, end, TokenKind.INT_CONST, InternPool.NO_ID);
+    }
+
+    /**
+     * Parses the value of an integer constant token
+     * @param source the source code the token was lexed from
+     * @param start offset of the first byte of the token
+     * @param end offset one past the last byte of the token
+     * @return the value of the constant
+     */
+    public static int intValue(ByteBuffer source, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (source.get(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Materializes the contents of a string constant token, without the quotes
+     * @param source the source code the token was lexed from
+     * @param start offset of the opening quote of the token
+     * @param end offset one past the last byte of the token
+     * @return the contents of the string constant
+     */
+    public static String stringValue(ByteBuffer source, int start, int end) {
+        if (end - start >= 2 && source.get(end - 1) == '"') {
+            end--;
+        }
+        byte[] bytes = new byte[end - start - 1];
+        source.get(start + 1, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Interns a keyword or identifier and records it as the last lexed token
+     * @param start offset of the first byte of the token
+     * @param end offset one past the last byte of the token
+     * @return true, for convenience of the caller
+     */
+    private boolean emitIdentifier(int start, int end) {
+        int id = pool.intern(source, start, end);
+        TokenKind kind = InternPool.isKeyword(id) ? TokenKind.KEYWORD : TokenKind.IDENTIFIER;
+        return emit(start, end, kind, id);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,66 @@
+package main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An output file that is written through a temporary file next to it. The temporary file only replaces
+ * the output file once it is committed, closing it without committing deletes it, so a compile that
+ * fails halfway through a streamed class leaves no truncated file behind
+ */
+final class OutputFile implements Closeable {
+
+    private final Path target;
+    private final Path temporary;
+    private final OutputStream out;
+    private boolean committed = false;
+
+    /**
+     * Creates the temporary file for an output file
+     * @param file the output file, it is not touched until commit
+     * @throws IOException if the temporary file cannot be created
+     */
+    OutputFile(File file) throws IOException {
+        this.target = file.toPath();
+        this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        this.out = Files.newOutputStream(temporary);
+    }
+
+    /**
+     * Returns the stream to write the contents to
+     * @return the unbuffered stream into the temporary file
+     */
+    OutputStream getStream() {
+        return out;
+    }
+
+    /**
+     * Closes the temporary file and moves it over the output file in one step
+     * @throws IOException if closing or moving fails, the temporary file is then deleted on close
+     */
+    void commit() throws IOException {
+        out.close();
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        committed = true;
+    }
+
+    /**
+     * Deletes the temporary file unless it was committed
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package main;
+
+import ast.SubroutineDec;
+import symboltable.ClassSymbolTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+import static main.InternPool.*;
+
+/**
+ * Compiles the subroutines of one class on the fork-join pool. The class is lexed into a token table
+ * and its static and field variables are collected first, then subroutine boundaries are found by
+ * matching braces. Every subroutine is parsed by a main.Parser of its own with its own subroutine symbol
+ * table, while the class symbol table and the pool are shared and only read. Labels are local to each
+ * subroutine, so the subroutines are generated concurrently as well and their VM code is concatenated
+ * in source order, as text or as VM instructions for the optimizer and the binary writer. The output is
+ * identical to Parser.compileClass
+ */
+public class ParallelClassCompiler {
+
+    /**
+     * Parses one subroutine and generates its VM code
+     */
+    private static class SubroutineTask<W extends VmWriter> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final TokenTable table;
+        private final int start; // index of the subroutine keyword
+        private final int end; // index one past the closing }
+        private final String className;
+        private final ClassSymbolTable classST;
+        private final W vmCode;
+
+        SubroutineTask(TokenTable table, int start, int end, String className, ClassSymbolTable classST,
+                       W vmCode) {
+            this.table = table;
+            this.start = start;
+            this.end = end;
+            this.className = className;
+            this.classST = classST;
+            this.vmCode = vmCode;
+        }
+
+        @Override
+        protected void compute() {
+            Tokenizer tokens = new Tokenizer(table, start, end);
+            Parser parser = new Parser(tokens, className, classST);
+            SubroutineDec subroutine = parser.parseSubroutineDec();
+            if (tokens.getNextIndex() != end) { // the braces matched differently than the grammar
+                throw unexpectedToken(table, tokens.getNextIndex(), "the end of the subroutine");
+            }
+            new AstCodeGenerator(vmCode).writeSubroutine(subroutine);
+        }
+    }
+
+    /**
+     * Compiles a Jack source code file, the file is memory mapped and lexed in parallel
+     * @param inputFile the Jack source code file
+     * @return the VM code of the class
+     * @throws IOException IOException
+     */
+    public static String compileClass(File inputFile) throws IOException {
+        StringBuilder vmCode = new StringBuilder();
+        compileClass(ParallelLexer.tokenize(Lexer.mapFile(inputFile), new InternPool()), vmCode);
+        return vmCode.toString();
+    }
+
+    /**
+     * Compiles the class declaration of a token table, writing its VM code into a sink in source order.
+     * The class must end after its subroutines just as for Parser.compileClass, the errors within the
+     * subroutines are reported first since they come first in the source
+     * @param table the tokens of the class, the pool is not modified
+     * @param out the sink to write VM code to
+     * @throws IOException if writing to the sink fails
+     */
+    public static void compileClass(TokenTable table, Appendable out) throws IOException {
+        for (SubroutineTask<VmEmitter> task : compileSubroutines(table, VmEmitter::new)) {
+            out.append(task.vmCode);
+        }
+    }
+
+    /**
+     * Compiles the class declaration of a token table, writing its VM instructions into a writer in source
+     * order, e.g. an optimizer or a VM program. Each subroutine is compiled into a main.VmProgram of its
+     * own, which is replayed into the writer once all of them compiled
+     * @param table the tokens of the class, the pool is not modified
+     * @param out where to write the VM instructions to
+     */
+    public static void compileClass(TokenTable table, VmWriter out) {
+        for (SubroutineTask<VmProgram> task : compileSubroutines(table, VmProgram::new)) {
+            task.vmCode.replay(out);
+        }
+    }
+
+    /**
+     * Compiles the subroutines of the class declaration of a token table concurrently
+     * @param table the tokens of the class, the pool is not modified
+     * @param vmCode creates the writer each subroutine's VM code is kept in
+     * @return the finished tasks, in source order
+     */
+    private static <W extends VmWriter> List<SubroutineTask<W>> compileSubroutines(TokenTable table,
+                                                                                 Supplier<W> vmCode) {
+        Tokenizer headerTokens = new Tokenizer(table);
+        Parser header = new Parser(headerTokens);
+        header.parseClassHeader();
+        String className = header.getCurrentClassName();
+        List<SubroutineTask<W>> tasks = new ArrayList<>();
+        int index = headerTokens.getNextIndex() - 1; // the token after the variable declarations
+        while (index < table.size() && isSubroutineKeyword(table.id(index))) {
+            int end = subroutineEnd(table, index);
+            tasks.add(new SubroutineTask<>(table, index, end, className, header.getClassST(), vmCode.get()));
+            index = end;
+        }
+        ForkJoinTask.invokeAll(tasks);
+        if (index == table.size() || table.id(index) != SYM_RIGHT_BRACE) {
+            throw unexpectedToken(table, index, "a subroutine or '}'");
+        }
+        if (index != table.size() - 1) {
+            throw unexpectedToken(table, index + 1, "the end of the file");
+        }
+        return tasks;
+    }
+
+
+    /**
+     * Finds the end of a subroutine by matching the braces of its body
+     * @param table the tokens of the class
+     * @param start index of the subroutine keyword
+     * @return index one past the } that closes the body, the size of the table if it is never closed
+     */
+    private static int subroutineEnd(TokenTable table, int start) {
+        int depth = 0;
+        for (int index = start; index < table.size(); index++) {
+            int id = table.id(index);
+            if (id == SYM_LEFT_BRACE) {
+                depth++;
+            } else if (id == SYM_RIGHT_BRACE && --depth == 0) {
+                return index + 1;
+            }
+        }
+        return table.size();
+    }
+
+    /**
+     * Creates the error for a token that does not fit the grammar, worded like the errors of main.Parser
+     * @param table the tokens of the class
+     * @param index index of the token, the size of the table at the end of the file
+     * @param expected what was expected instead
+     * @return the error to throw
+     */
+    private static CompileError unexpectedToken(TokenTable table, int index, String expected) {
+        Diagnostic diagnostic;
+        if (index < table.size()) {
+            diagnostic = new Diagnostic(Diagnostic.Kind.SYNTAX_ERROR, table.start(index),
+                    "Expected " + expected + " but found '" + table.text(index) + "'");
+        } else {
+            diagnostic = new Diagnostic(Diagnostic.Kind.SYNTAX_ERROR, table.getSource().limit(),
+                    "Expected " + expected + " but reached the end of the file");
+        }
+        return new CompileError(Diagnostic.locate(table.getSource(), Collections.singletonList(diagnostic)).get(0));
+    }
+
+    private static boolean isSubroutineKeyword(int id) {
+        return id == KW_CONSTRUCTOR || id == KW_FUNCTION || id == KW_METHOD;
+    }
+}
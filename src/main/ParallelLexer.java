@@ -0,0 +1,142 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Lexes a large source file on the fork-join pool. The file is split into chunks at line breaks, where the
+ * only lexer state that can carry over is whether a block comment is open. Since that is not known until
+ * the previous chunk is lexed, every chunk is lexed speculatively both ways, then the variants that match
+ * the actual state are stitched together in order. The result is identical to TokenTable.tokenize
+ */
+public class ParallelLexer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20; // 1 MB
+
+    /**
+     * Lexes one chunk under both assumptions. Identifiers are interned into a pool private to the chunk,
+     * so chunks do not contend on the shared pool
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ByteBuffer source;
+        private final int start;
+        private final int end;
+        private final InternPool chunkPool = new InternPool();
+        // assuming the chunk starts between tokens
+        private TokenTable tokens;
+        private boolean endsInsideBlockComment;
+        // assuming the chunk starts inside a block comment. As soon as that variant reaches a token start of
+        // the other one, both lexers are in the same state and the rest of the tokens are shared
+        private TokenTable commentVariantTokens; // tokens before the two variants join
+        private int joinIndex; // index into tokens where the variants join, tokens.size() if they never do
+        private boolean commentVariantEndsInsideBlockComment;
+
+        ChunkTask(ByteBuffer source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            tokens = new TokenTable(source, chunkPool, Math.max(16, (end - start) / 8));
+            Lexer lexer = new Lexer(source, chunkPool, start, end, false);
+            while (lexer.next()) {
+                tokens.add(lexer.getTokenKind(), lexer.getTokenId(), lexer.getTokenStart(), lexer.getTokenEnd());
+            }
+            endsInsideBlockComment = lexer.isInsideBlockComment();
+
+            commentVariantTokens = new TokenTable(source, chunkPool, 16);
+            lexer = new Lexer(source, chunkPool, start, end, true);
+            int index = 0;
+            while (lexer.next()) {
+                int tokenStart = lexer.getTokenStart();
+                while (index < tokens.size() && tokens.start(index) < tokenStart) {
+                    index++;
+                }
+                if (index < tokens.size() && tokens.start(index) == tokenStart) {
+                    joinIndex = index;
+                    commentVariantEndsInsideBlockComment = endsInsideBlockComment;
+                    return;
+                }
+                commentVariantTokens.add(lexer.getTokenKind(), lexer.getTokenId(), tokenStart, lexer.getTokenEnd());
+            }
+            joinIndex = tokens.size();
+            commentVariantEndsInsideBlockComment = lexer.isInsideBlockComment();
+        }
+    }
+
+    /**
+     * Tokenizes a whole source buffer in parallel, using 1 MB chunks
+     * @param source the ASCII Jack source code
+     * @param pool the pool to intern keywords and identifiers into
+     * @return the token table of the source
+     */
+    public static TokenTable tokenize(ByteBuffer source, InternPool pool) {
+        return tokenize(source, pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Tokenizes a whole source buffer in parallel
+     * @param source the ASCII Jack source code
+     * @param pool the pool to intern keywords and identifiers into
+     * @param chunkSize approximate number of bytes per chunk
+     * @return the token table of the source
+     */
+    public static TokenTable tokenize(ByteBuffer source, InternPool pool, int chunkSize) {
+        int length = source.limit();
+        if (length <= chunkSize) {
+            return TokenTable.tokenize(source, pool);
+        }
+        List<ChunkTask> tasks = new ArrayList<>();
+        int chunkStart = 0;
+        while (chunkStart < length) {
+            int chunkEnd = lineBreakAfter(source, Math.min(length, chunkStart + chunkSize));
+            tasks.add(new ChunkTask(source, chunkStart, chunkEnd));
+            chunkStart = chunkEnd;
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        // stitch the variants that follow from the actual state at each chunk boundary
+        TokenTable table = new TokenTable(source, pool, Math.max(16, length / 8));
+        boolean insideBlockComment = false;
+        for (ChunkTask task : tasks) {
+            int[] idMap = new int[task.chunkPool.size()];
+            for (int id = InternPool.NUM_FIXED_IDS; id < idMap.length; id++) {
+                idMap[id] = pool.intern(task.chunkPool.name(id));
+            }
+            if (insideBlockComment) {
+                table.appendRemapped(task.commentVariantTokens, 0, idMap);
+                table.appendRemapped(task.tokens, task.joinIndex, idMap);
+                insideBlockComment = task.commentVariantEndsInsideBlockComment;
+            } else {
+                table.appendRemapped(task.tokens, 0, idMap);
+                insideBlockComment = task.endsInsideBlockComment;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Moves a chunk boundary to just after the next line break, so it cannot fall inside a token
+     * @param source the ASCII source code
+     * @param position the tentative boundary
+     * @return offset just after the next '\n', or the end of the source
+     */
+    private static int lineBreakAfter(ByteBuffer source, int position) {
+        int length = source.limit();
+        if (position == 0 || position >= length) {
+            return length;
+        }
+        for (int i = position - 1; i < length; i++) {
+            if (source.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+}
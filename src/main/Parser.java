@@ -1,59 +1,87 @@
 package main;
 
+import ast.*;
 import symbol.Symbol;
 import symbol.SymbolKind;
 import symboltable.ClassSymbolTable;
 import symboltable.SubroutineSymbolTable;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Optional;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static main.InternPool.*;
 
 /**
- * Works in tandem with a main.Tokenizer object to generate a parsetree
+ * Works in tandem with a main.Tokenizer object to generate a parsetree, a typed AST with resolved
+ * symbols that main.AstCodeGenerator turns into VM code
  */
-public class Parser {
+public class Parser extends ParserBase {
 
-    private Tokenizer tokenizer;
-    private SubroutineSymbolTable subroutineST;
-    private ClassSymbolTable classST;
     private File inputFile;
 
-    public static int getNumLabels() {
-        return numLabels;
+    private AstCodeGenerator codeGenerator; // writes into vmCode, for the compileX methods that return VM code
+    private final VmEmitter vmCode = new VmEmitter();
+    private String currentClassName = ""; // name of the class being compiled
+
+    // keywords a statement can start with, indexed by interned ID
+    private static final boolean[] STATEMENT_KEYWORDS = new boolean[NUM_KEYWORDS];
+
+    static {
+        for (int keyword : new int[]{KW_LET, KW_IF, KW_WHILE, KW_DO, KW_RETURN}) {
+            STATEMENT_KEYWORDS[keyword] = true;
+        }
     }
 
-    private CodeGenerator codeGenerator;
-    private String currentClassName = ""; // name of the class being compiled
-    private static int numLabels = 0; // enumerated to keep labels unique
-    // define Sets and Patterns for matching terminal elements
-    private final Set<String> symbolSet = new HashSet<>(Arrays.asList("{", "}",
-            "(", ")", "[", "]", ".", ",", ";", "+",
-            "-", "*", "/", "&", "|", "<", ">", "=", "~"));
-    private final Set<String> keyWordConstantSet = new HashSet<>(Arrays.asList("true", "false",
-            "null", "this"));
-    private final Set<String> binaryOpSet = new HashSet<>(Arrays.asList("+", "-",
-            "*", "/", "&", "|", "<", ">", "="));
-    private final Pattern intConstPattern = Pattern.compile("\\d+");
-    private final Pattern stringConstPattern = Pattern.compile("\".+\"");
-
-    /**
-     * Special constructor for testing purposes
+    /**
+     * Initializes a main.Parser over a Jack source code file, the file is read and tokenized once
      * @param inputFile the Jack source code file
      * @throws IOException IOException
      */
     public Parser(File inputFile) throws IOException {
-        this.tokenizer = new Tokenizer(inputFile);
-        this.codeGenerator = new CodeGenerator();
-        this.classST = new ClassSymbolTable();
-        this.subroutineST = new SubroutineSymbolTable();
+        this(new Tokenizer(inputFile));
         this.inputFile = inputFile;
     }
 
+    /**
+     * Initializes a main.Parser over Jack source code that is already in memory
+     * @param sourceCode the Jack source code
+     */
+    public Parser(String sourceCode) {
+        this(new Tokenizer(ByteBuffer.wrap(sourceCode.getBytes(StandardCharsets.ISO_8859_1)), new InternPool()));
+    }
+
+    /**
+     * Initializes a main.Parser over an existing token stream, symbols are interned into the
+     * tokenizer's pool
+     * @param tokenizer the tokens of the Jack source code
+     */
+    public Parser(Tokenizer tokenizer) {
+        super(tokenizer);
+        this.codeGenerator = new AstCodeGenerator(vmCode);
+        this.classST = new ClassSymbolTable(pool);
+        this.subroutineST = new SubroutineSymbolTable(pool);
+    }
+
+    /**
+     * Initializes a main.Parser for the subroutines of a class whose header was parsed by another
+     * main.Parser, the class symbol table is shared and only read
+     * @param tokenizer the tokens of the subroutines
+     * @param className name of the class
+     * @param classST the symbol table of the class
+     */
+    Parser(Tokenizer tokenizer, String className, ClassSymbolTable classST) {
+        super(tokenizer);
+        this.codeGenerator = new AstCodeGenerator(vmCode);
+        this.classST = classST;
+        this.currentClassName = className;
+    }
+
     public SubroutineSymbolTable getSubroutineST() {
         return subroutineST;
     }
@@ -63,37 +91,105 @@ public class Parser {
     }
 
     /**
-     * Parses an input file (.jack file) and compiles it into VM code
+     * Parses an input file (.jack file) and compiles it into VM code. The .vm file next to it is only
+     * written once the whole class compiled, a class that fails to compile leaves no .vm file behind
      * @throws IOException IOException
      */
     public void parse() throws IOException {
-        this.tokenizer = new Tokenizer(this.inputFile);
+        if (this.inputFile == null) {
+            throw new IllegalStateException("No input file to name the output after, use compileClass instead");
+        }
         String outputFilePath = extractFileNameWithoutExtension(this.inputFile.toString()) + ".vm";
-        File outputFile = new File(outputFilePath);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
-            writer.write(compileClass());
+        try (OutputFile output = new OutputFile(new File(outputFilePath))) {
+            compileClass(output.getStream());
+            output.commit(); // only a complete class replaces the .vm file
+        }
+    }
+
+    /**
+     * Compiles a class declaration into a stream as ASCII bytes, a buffer's worth at a time. Each subroutine
+     * is written as soon as it is parsed and then dropped, like compileClass(Appendable)
+     * @param out the stream to write VM code to, e.g. the output file
+     * @throws IOException if writing to the stream fails
+     */
+    public void compileClass(OutputStream out) throws IOException {
+        VmEmitter emitter = new VmEmitter(out);
+        try {
+            compileClass(emitter);
+            emitter.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
+    /**
+     * Compiles a class declaration, streaming its VM code into a sink as it is generated. Each subroutine
+     * is written as soon as it is parsed and then dropped along with its symbol table, so memory use does
+     * not grow with the size of the class
+     * @param out the sink to write VM code to, e.g. the output file
+     * @throws IOException if writing to the sink fails
+     */
+    public void compileClass(Appendable out) throws IOException {
+        AstCodeGenerator generator = new AstCodeGenerator(out);
+        try {
+            parseClass(generator::writeSubroutine);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Compiles a class declaration into int-encoded VM instructions, for passes that work on VM code or
+     * to be saved as a .vmb file
+     * @return the VM instructions of the class
+     */
+    public VmProgram compileProgram() {
+        VmProgram program = new VmProgram();
+        compileClass(program);
+        return program;
+    }
+
+    /**
+     * Compiles a class declaration instruction by instruction into a writer, e.g. an optimizer. Each
+     * subroutine is written as soon as it is parsed
+     * @param out where to write the VM instructions to
+     */
+    public void compileClass(VmWriter out) {
+        parseClass(new AstCodeGenerator(out)::writeSubroutine);
+    }
+
+    /**
+     * Takes the VM code written by the compileX methods so far
+     * @return the VM code written since the last call
+     */
+    private String flush() {
+        String code = vmCode.toString();
+        vmCode.reset();
+        return code;
+    }
+
     /**
      * Adds class level symbols (static and field variables) to the class symbol table
      */
     public void compileClassVarDec() {
-        String varKind = tokenizer.getNextToken(); // "static" or "field"
-        String varType = tokenizer.getNextToken(); // type
-        String varName = tokenizer.getNextToken();
+        int varKind = nextTokenId("'static' or 'field'");
+        String varType = pool.name(expectType("a type"));
+        int varName = expectIdentifier("a variable name");
         SymbolKind symKind;
-        if (varKind.equals("static")) {
+        if (varKind == KW_STATIC) {
             symKind = SymbolKind.STATIC;
         } else {
             symKind = SymbolKind.FIELD;
         }
         classST.define(varName, varType, symKind);
-        String nextToken = tokenizer.getNextToken();
-        while (nextToken.equals(",")) {
-            varName = tokenizer.getNextToken();
+        int nextToken = nextTokenId("',' or ';'");
+        while (nextToken == SYM_COMMA) {
+            varName = expectIdentifier("a variable name");
             classST.define(varName, varType, symKind);
-            nextToken = tokenizer.getNextToken();
+            nextToken = nextTokenId("',' or ';'");
+        }
+        if (nextToken != SYM_SEMICOLON) {
+            throw unexpectedToken("',' or ';'");
         }
     }
 
@@ -108,21 +204,27 @@ public class Parser {
      * Compiles the VM code for a parameter list, including the parentheses
      */
     public void compileParamList() {
-        tokenizer.getNextToken(); // the opening (
-        String nextToken = tokenizer.getNextToken();
-        if (nextToken.equals(")")) { // ), empty param list
+        expect(SYM_LEFT_PAREN);
+        int nextToken = nextTokenId("a type or ')'");
+        if (nextToken == SYM_RIGHT_PAREN) { // ), empty param list
             return;
         }
         // first variable declaration
-        String varType = nextToken;
-        String varName = tokenizer.getNextToken();
+        if (!isType(nextToken)) {
+            throw unexpectedToken("a type or ')'");
+        }
+        String varType = pool.name(nextToken);
+        int varName = expectIdentifier("a parameter name");
         subroutineST.define(varName, varType, SymbolKind.ARGUMENT);
-        nextToken = tokenizer.getNextToken();
-        while (nextToken.equals(",")) {
-            varType = tokenizer.getNextToken();
-            varName = tokenizer.getNextToken();
+        nextToken = nextTokenId("',' or ')'");
+        while (nextToken == SYM_COMMA) {
+            varType = pool.name(expectType("a type"));
+            varName = expectIdentifier("a parameter name");
             subroutineST.define(varName, varType, SymbolKind.ARGUMENT);
-            nextToken = tokenizer.getNextToken();
+            nextToken = nextTokenId("',' or ')'");
+        }
+        if (nextToken != SYM_RIGHT_PAREN) {
+            throw unexpectedToken("',' or ')'");
         }
     }
 
@@ -131,122 +233,247 @@ public class Parser {
      * @return an expression in VM code
      */
     public String compileExpression() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(compileTerm());
-        if (!tokenizer.hasNextToken()) {
-            return sb.toString();
-        }
-        String nextToken = tokenizer.getNextToken();
-        while (binaryOpSet.contains(nextToken)) {
-            sb.append(compileTerm());
-            sb.append(codeGenerator.generateArithLogical(nextToken));
-            if (!tokenizer.hasNextToken()) {
-                return sb.toString();
-            }
-            nextToken = tokenizer.getNextToken();
-        }
-        tokenizer.backTrack();
-        return sb.toString();
+        codeGenerator.writeExpression(parseExpression());
+        return flush();
     }
 
+    /**
+     * Parses an expression, a chain of terms joined by binary operators
+     * @return the expression
+     */
+    public Expression parseExpression() {
+        return parseExpression(true);
+    }
 
     /**
      * Compiles a Jack term into the corresponding VM code
      * @return VM code for a term
      */
     public String compileTerm() {
-        StringBuilder sb = new StringBuilder();
-        String nextToken = tokenizer.getNextToken();
-        Matcher intConstantMatcher = intConstPattern.matcher(nextToken);
-        Matcher strConstantMatcher = stringConstPattern.matcher(nextToken);
-        if (intConstantMatcher.matches()) { // integer constant
-            sb.append(codeGenerator.generatePush(MemorySegment.CONSTANT, Integer.parseInt(nextToken)));
-        } else if (strConstantMatcher.matches()) { // string constant, need to strip off quotes
-            sb.append(codeGenerator.generateStringLiteral(nextToken.replaceAll("\"", "")));
-        } else if (keyWordConstantSet.contains(nextToken)) { // keyword constant
-            sb.append(codeGenerator.generateKeywordConstant(nextToken));
-        } else if (nextToken.equals("(")) { // (expression)
-            sb.append(compileExpression());
-            tokenizer.getNextToken(); // )
-        } else if (symbolSet.contains(nextToken)) { // unaryOp
-            sb.append(compileTerm());
-            sb.append(codeGenerator.generateUnaryOp(nextToken));
-        } else { // either just varName, array access or subroutine call
-              /* Not sure why this block is here, seems unnecessary */
-            if (!tokenizer.hasNextToken()) {
-                Symbol unpackedSymbol = lookUpSymbol(nextToken);
-                MemorySegment memSeg = getSymbolMemSeg(unpackedSymbol); // give memSeg an arbitrary starting value
-                sb.append(codeGenerator.generatePush(memSeg, unpackedSymbol.getNumKind()));
-                return sb.toString();
+        codeGenerator.writeExpression(parseTerm());
+        return flush();
+    }
+
+    /**
+     * Parses a Jack term
+     * @return the term
+     */
+    public Expression parseTerm() {
+        return parseExpression(false);
+    }
+
+    // what an unfinished construct on the expression stack is waiting for, see parseExpression(boolean)
+    private static final int FRAME_OPERAND = 0; // the next term of a chain of binary operators
+    private static final int FRAME_PARENTHESES = 1; // the expression inside ( )
+    private static final int FRAME_UNARY = 2; // the operand of a unary operator
+    private static final int FRAME_ARRAY_INDEX = 3; // the expression inside [ ]
+    private static final int FRAME_ARGUMENT = 4; // the next argument of a subroutine call
+
+    /**
+     * An unfinished construct on the expression stack
+     */
+    private static final class Frame {
+        final int kind;
+        Expression expression; // FRAME_OPERAND: the chain parsed so far
+        String operator; // FRAME_OPERAND: the binary operator waiting for its right operand; FRAME_UNARY: the operator
+        Symbol array; // FRAME_ARRAY_INDEX
+        String className; // FRAME_ARGUMENT: the call being parsed
+        String subroutineName;
+        Expression receiver;
+        List<Expression> arguments;
+
+        Frame(int kind) {
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Parses an expression or a single term without recursing. Every parenthesis, unary operator, array
+     * index and argument list that is still open is a Frame on a heap allocated stack, so the depth of
+     * nesting is only bounded by the heap. A finished term is handed to the frames waiting for it until
+     * one of them needs more tokens
+     * @param wholeExpression true to parse a chain of terms joined by binary operators, false for one term
+     * @return the expression or term
+     */
+    private Expression parseExpression(boolean wholeExpression) {
+        ArrayDeque<Frame> frames = new ArrayDeque<>();
+        if (wholeExpression) {
+            frames.push(new Frame(FRAME_OPERAND));
+        }
+        while (true) {
+            Expression term = parseTermStart(frames);
+            if (term == null) { // the term opened a frame, its contents come next
+                continue;
             }
-            String nextNextToken = tokenizer.getNextToken();
-            if (nextNextToken.equals("[")) { // array access
-                Symbol unpackedSymbol = lookUpSymbol(nextToken);
-                sb.append(codeGenerator.generatePush(getSymbolMemSeg(unpackedSymbol), unpackedSymbol.getNumKind()));
-                sb.append(compileExpression());
-                sb.append(codeGenerator.generateArithLogical("+"));
-                sb.append(codeGenerator.generatePop(MemorySegment.POINTER, 1));
-                sb.append(codeGenerator.generatePush(MemorySegment.THAT, 0));
-                tokenizer.getNextToken(); // ]
-            } else if (nextNextToken.equals("(") || nextNextToken.equals(".")) { // subroutine call
-                for (int i = 0; i < 2; i++) {
-                    tokenizer.backTrack(); // backtrack two spots to before the identifier
+            reduce:
+            while (true) {
+                Frame frame = frames.peek();
+                if (frame == null) { // a single term was asked for
+                    return term;
+                }
+                if (frame.kind == FRAME_UNARY) {
+                    frames.pop();
+                    term = new UnaryExpression(frame.operator, term);
+                    continue;
+                }
+                // FRAME_OPERAND, the term extends the chain of binary operators
+                frame.expression = frame.operator == null ? term
+                        : new BinaryExpression(frame.expression, frame.operator, term);
+                if (tokenizer.hasNextToken()) {
+                    int nextToken = tokenizer.getNextTokenId();
+                    if (isBinaryOp(nextToken)) {
+                        frame.operator = pool.name(nextToken);
+                        break; // parse the right operand
+                    }
+                    tokenizer.backTrack();
+                }
+                // the expression is complete, hand it to the construct it is nested in
+                frames.pop();
+                Expression expression = frame.expression;
+                Frame parent = frames.peek();
+                if (parent == null) {
+                    return expression;
+                }
+                switch (parent.kind) {
+                    case FRAME_PARENTHESES:
+                        frames.pop();
+                        expect(SYM_RIGHT_PAREN);
+                        term = expression;
+                        continue reduce;
+                    case FRAME_ARRAY_INDEX:
+                        frames.pop();
+                        expect(SYM_RIGHT_BRACKET);
+                        term = new ArrayAccess(parent.array, expression);
+                        continue reduce;
+                    default: // FRAME_ARGUMENT
+                        parent.arguments.add(expression);
+                        if (tokenizer.hasNextToken()) {
+                            if (tokenizer.getNextTokenId() == SYM_COMMA) {
+                                frames.push(new Frame(FRAME_OPERAND));
+                                break reduce; // parse the next argument
+                            }
+                            tokenizer.backTrack();
+                        }
+                        frames.pop();
+                        expect(SYM_RIGHT_PAREN);
+                        term = new SubroutineCall(parent.className, parent.subroutineName, parent.receiver,
+                                parent.arguments);
                 }
-                sb.append(compileSubroutineCall());
-            } else { // just identifier
-                Symbol unpackedSymbol = lookUpSymbol(nextToken);
-                MemorySegment memSeg = getSymbolMemSeg(unpackedSymbol); // give memSeg an arbitrary starting value
-                sb.append(codeGenerator.generatePush(memSeg, unpackedSymbol.getNumKind()));
-                tokenizer.backTrack(); // spit out the nextNextToken
             }
         }
-        return sb.toString();
     }
 
     /**
-     * Compiles the VM code for a subroutine call
-     * @return the VM code for a subroutine call
+     * Parses the tokens a term starts with. A term without nested expressions is returned whole, any
+     * other term pushes the frames for its nested expression instead
+     * @param frames the expression stack
+     * @return the term, null if it pushed frames
      */
-    private String compileSubroutineCall() {
-        StringBuilder sb = new StringBuilder();
+    private Expression parseTermStart(ArrayDeque<Frame> frames) {
+        int nextToken = nextTokenId("a term");
+        // the lexer already classified the token, dispatch on its kind
+        TokenKind kind = tokenizer.getCurrentKind();
+        if (kind == TokenKind.INT_CONST) { // integer constant
+            return new IntegerConstant(tokenizer.getCurrentIntValue());
+        } else if (kind == TokenKind.STRING_CONST) { // string constant, without the quotes
+            return new StringConstant(tokenizer.getCurrentStringValue());
+        } else if (kind == TokenKind.KEYWORD) { // keyword constant
+            if (nextToken != KW_TRUE && nextToken != KW_FALSE && nextToken != KW_NULL && nextToken != KW_THIS) {
+                throw unexpectedToken("a term");
+            }
+            return new KeywordConstant(pool.name(nextToken));
+        } else if (nextToken == SYM_LEFT_PAREN) { // (expression)
+            frames.push(new Frame(FRAME_PARENTHESES));
+            frames.push(new Frame(FRAME_OPERAND));
+            return null;
+        } else if (kind == TokenKind.SYMBOL) { // unaryOp
+            if (nextToken != SYM_MINUS && nextToken != SYM_TILDE) {
+                throw unexpectedToken("a term");
+            }
+            Frame unary = new Frame(FRAME_UNARY);
+            unary.operator = pool.name(nextToken);
+            frames.push(unary);
+            return null;
+        }
+        // either just varName, array access or subroutine call
+        int identifierStart = tokenizer.getCurrentTokenStart();
+        if (!tokenizer.hasNextToken()) {
+            return new VariableReference(lookUpSymbol(nextToken, identifierStart));
+        }
+        int nextNextToken = tokenizer.getNextTokenId();
+        if (nextNextToken == SYM_LEFT_BRACKET) { // array access
+            Frame index = new Frame(FRAME_ARRAY_INDEX);
+            index.array = lookUpSymbol(nextToken, identifierStart);
+            frames.push(index);
+            frames.push(new Frame(FRAME_OPERAND));
+            return null;
+        } else if (nextNextToken == SYM_LEFT_PAREN || nextNextToken == SYM_DOT) { // subroutine call
+            return parseSubroutineCallStart(nextToken, nextNextToken, frames);
+        }
+        // just identifier
+        Symbol variable = lookUpSymbol(nextToken, identifierStart);
+        tokenizer.backTrack(); // spit out the nextNextToken
+        return new VariableReference(variable);
+    }
+
+    /**
+     * Parses a subroutine call up to its first argument
+     * @param nextToken the identifier the call starts with
+     * @param nextNextToken the token after it, either ( or .
+     * @param frames the expression stack
+     * @return the call if it has no arguments, null if it pushed the frames for its first argument
+     */
+    private SubroutineCall parseSubroutineCallStart(int nextToken, int nextNextToken, ArrayDeque<Frame> frames) {
         String className;
         String subroutineName;
-        String nextToken = tokenizer.getNextToken(); // identifier
-        String nextNextToken = tokenizer.getNextToken(); // either ( or .
-        boolean isMethod = false;
-
-        if (nextNextToken.equals(".")) { // not a method in the same class
-            Symbol symbol;
-            if (subroutineST.hasSymbol(nextToken) || classST.hasSymbol(nextToken)) {
-                Optional<Symbol> option = subroutineST.lookUp(nextToken);
-                if (!option.isPresent()) {
-                    option = classST.lookUp(nextToken);
-                }
-                symbol = option.get();
+        Expression receiver;
+        if (nextNextToken == SYM_DOT) { // not a method in the same class
+            Symbol symbol = subroutineST.get(nextToken);
+            if (symbol == null) {
+                symbol = classST.get(nextToken);
+            }
+            if (symbol != null) { // method call on an object
                 className = symbol.getDataType();
-                sb.append(codeGenerator.generatePush(getSymbolMemSeg(symbol), symbol.getNumKind()));
-                isMethod = true;
+                receiver = new VariableReference(symbol);
             } else { // function call
-                className = nextToken;
+                className = pool.name(nextToken);
+                receiver = null;
             }
-            subroutineName = tokenizer.getNextToken();
-            tokenizer.getNextToken(); // (
+            subroutineName = pool.name(expectIdentifier("a subroutine name"));
+            expect(SYM_LEFT_PAREN);
         } else { // method in the same class
             className = this.currentClassName;
-            subroutineName = nextToken;
-            sb.append(codeGenerator.generatePush(MemorySegment.POINTER, 0));
-            isMethod = true;
+            subroutineName = pool.name(nextToken);
+            receiver = new KeywordConstant("this");
         }
-        String fullSubroutineName = String.format("%s.%s", className, subroutineName);
-        ExpressionList compiledExpList = compileExpressionList();
-        int numArgs = compiledExpList.getNumExpressions();
-        if (isMethod) {
-            numArgs++;
+        if (nextTokenId("an expression or ')'") == SYM_RIGHT_PAREN) { // empty expression list
+            return new SubroutineCall(className, subroutineName, receiver, new ArrayList<>());
         }
-        sb.append(compiledExpList.getVmCode());
-        sb.append(codeGenerator.generateFuncCall(fullSubroutineName, numArgs));
-        tokenizer.getNextToken(); // )
-        return sb.toString();
+        tokenizer.backTrack();
+        Frame call = new Frame(FRAME_ARGUMENT);
+        call.className = className;
+        call.subroutineName = subroutineName;
+        call.receiver = receiver;
+        call.arguments = new ArrayList<>();
+        frames.push(call);
+        frames.push(new Frame(FRAME_OPERAND));
+        return null;
+    }
+
+    /**
+     * Parses a subroutine call, which is parsed like any other term but must turn out to be a call
+     * @return the subroutine call
+     */
+    private SubroutineCall parseSubroutineCall() {
+        int name = expectIdentifier("a subroutine call");
+        int start = tokenizer.getCurrentTokenStart();
+        tokenizer.backTrack();
+        Expression term = parseTerm();
+        if (!(term instanceof SubroutineCall)) { // a variable or an array element
+            throw new CompileError(locate(new Diagnostic(Diagnostic.Kind.SYNTAX_ERROR, start,
+                    "Expected a subroutine call but found '" + pool.name(name) + "'")));
+        }
+        return (SubroutineCall) term;
     }
 
     /**
@@ -254,34 +481,36 @@ public class Parser {
      * @return the VM code for a list of expressions
      */
     public ExpressionList compileExpressionList() {
-        StringBuilder sb = new StringBuilder();
-        int numExpressions = 0;
-        String nextToken = tokenizer.getNextToken();
-        if (nextToken.equals(")")) { // empty expression list
-            tokenizer.backTrack();
-            return new ExpressionList(sb.toString(), numExpressions);
-        }
+        List<Expression> expressions = parseExpressionList();
+        codeGenerator.writeExpressions(expressions);
+        return new ExpressionList(flush(), expressions.size());
+    }
+
+    /**
+     * Parses a possibly empty, comma separated list of expressions, up to but not including the )
+     * @return the expressions
+     */
+    private List<Expression> parseExpressionList() {
+        List<Expression> expressions = new ArrayList<>();
+        int nextToken = nextTokenId("an expression or ')'");
         tokenizer.backTrack();
-        sb.append(compileExpression());
-        numExpressions++;
-        if (!tokenizer.hasNextToken()) {
-            return new ExpressionList(sb.toString(), numExpressions);
+        if (nextToken == SYM_RIGHT_PAREN) { // empty expression list
+            return expressions;
         }
-        nextToken = tokenizer.getNextToken();
-        if (!nextToken.equals(",")) {
-            tokenizer.backTrack();
-            return new ExpressionList(sb.toString(), numExpressions);
+        expressions.add(parseExpression());
+        if (!tokenizer.hasNextToken()) {
+            return expressions;
         }
-        while (nextToken.equals(",")) {
-            sb.append(compileExpression());
-            numExpressions++;
+        nextToken = tokenizer.getNextTokenId();
+        while (nextToken == SYM_COMMA) {
+            expressions.add(parseExpression());
             if (!tokenizer.hasNextToken()) {
-                return new ExpressionList(sb.toString(), numExpressions);
+                return expressions;
             }
-            nextToken = tokenizer.getNextToken();
+            nextToken = tokenizer.getNextTokenId();
         }
         tokenizer.backTrack();
-        return new ExpressionList(sb.toString(), numExpressions);
+        return expressions;
     }
 
     /**
@@ -289,27 +518,29 @@ public class Parser {
      * @return the VM code for a let statement
      */
     public String compileLetStatement() {
-        StringBuilder sb = new StringBuilder();
-        String varName = tokenizer.getNextToken(); // varName
-        Symbol variable = lookUpSymbol(varName);
-        String nextToken = tokenizer.getNextToken();
-        if (nextToken.equals("[")) {
-            sb.append(codeGenerator.generatePush(getSymbolMemSeg(variable), variable.getNumKind()));
-            sb.append(compileExpression());
-            sb.append(codeGenerator.generateArithLogical("+"));
-            tokenizer.getNextToken(); // ]
-            tokenizer.getNextToken(); // =
-            sb.append(compileExpression());
-            sb.append(codeGenerator.generatePop(MemorySegment.TEMP, 0)); // store value of expression
-            sb.append(codeGenerator.generatePop(MemorySegment.POINTER, 1)); // align THAT
-            sb.append(codeGenerator.generatePush(MemorySegment.TEMP, 0));
-            sb.append(codeGenerator.generatePop(MemorySegment.THAT, 0));
-        } else {
-            sb.append(compileExpression());
-            sb.append(codeGenerator.generatePop(getSymbolMemSeg(variable), variable.getNumKind()));
+        codeGenerator.writeStatement(parseLetStatement());
+        return flush();
+    }
+
+    /**
+     * Parses a let statement, the "let" keyword has already been read
+     * @return the let statement
+     */
+    private LetStatement parseLetStatement() {
+        int varName = expectIdentifier("a variable name");
+        Symbol variable = lookUpSymbol(varName, tokenizer.getCurrentTokenStart());
+        Expression index = null;
+        int nextToken = nextTokenId("'[' or '='");
+        if (nextToken == SYM_LEFT_BRACKET) {
+            index = parseExpression();
+            expect(SYM_RIGHT_BRACKET);
+            expect(SYM_EQUALS);
+        } else if (nextToken != SYM_EQUALS) {
+            throw unexpectedToken("'[' or '='");
         }
-        tokenizer.getNextToken(); // ;
-        return sb.toString();
+        Expression value = parseExpression();
+        expect(SYM_SEMICOLON);
+        return new LetStatement(variable, index, value);
     }
 
     /**
@@ -317,38 +548,32 @@ public class Parser {
      * @return the VM code for an if statement
      */
     public String compileIfStatement() {
-        StringBuilder sb = new StringBuilder();
-        tokenizer.getNextToken(); // (
-        sb.append(compileExpression());
-        sb.append(codeGenerator.generateUnaryOp("~")); // negate the expression
-        sb.append(codeGenerator.generateIfGOTO("LBL_" + numLabels));
-        int labelOne = numLabels; // save this
-        numLabels++;
-        tokenizer.getNextToken(); // )
-        tokenizer.getNextToken(); // {
-        sb.append(compileStatements());
-        sb.append(codeGenerator.generateGOTO("LBL_" + numLabels));
-        int labelTwo = numLabels; // save before incrementing
-        numLabels++;
-        tokenizer.getNextToken(); // }
-        if (!tokenizer.hasNextToken()) {
-            sb.append(codeGenerator.generateLabel("LBL_" + labelOne));
-            sb.append(codeGenerator.generateLabel("LBL_" + labelTwo));
-            return sb.toString();
-        }
-        String nextToken = tokenizer.getNextToken();
-        if (nextToken.equals("else")) {
-            tokenizer.getNextToken(); // {
-            sb.append(codeGenerator.generateLabel("LBL_" + labelOne));
-            sb.append(compileStatements());
-            sb.append(codeGenerator.generateLabel("LBL_" + labelTwo));
-            tokenizer.getNextToken(); // }
-        } else {
-            sb.append(codeGenerator.generateLabel("LBL_" + labelOne));
-            sb.append(codeGenerator.generateLabel("LBL_" + labelTwo));
-            tokenizer.backTrack();
+        codeGenerator.writeStatement(parseIfStatement());
+        return flush();
+    }
+
+    /**
+     * Parses an if statement, the "if" keyword has already been read
+     * @return the if statement
+     */
+    private IfStatement parseIfStatement() {
+        expect(SYM_LEFT_PAREN);
+        Expression condition = parseExpression();
+        expect(SYM_RIGHT_PAREN);
+        expect(SYM_LEFT_BRACE);
+        List<Statement> thenStatements = parseStatements();
+        expect(SYM_RIGHT_BRACE);
+        List<Statement> elseStatements = Collections.emptyList();
+        if (tokenizer.hasNextToken()) {
+            if (tokenizer.getNextTokenId() == KW_ELSE) {
+                expect(SYM_LEFT_BRACE);
+                elseStatements = parseStatements();
+                expect(SYM_RIGHT_BRACE);
+            } else {
+                tokenizer.backTrack();
+            }
         }
-        return sb.toString();
+        return new IfStatement(condition, thenStatements, elseStatements);
     }
 
     /**
@@ -356,24 +581,22 @@ public class Parser {
      * @return the VM code for a while statement
      */
     public String compileWhileStatement() {
-        StringBuilder sb = new StringBuilder();
-        tokenizer.getNextToken(); // (
-        // store the label numbers
-        int labelOne = numLabels;
-        numLabels++;
-        int labelTwo = numLabels;
-        numLabels++;
-        sb.append(codeGenerator.generateLabel("LBL_" + labelOne));
-        sb.append(compileExpression());
-        sb.append(codeGenerator.generateUnaryOp("~")); // negate the expression
-        tokenizer.getNextToken(); // )
-        tokenizer.getNextToken(); // {
-        sb.append(codeGenerator.generateIfGOTO("LBL_" + labelTwo));
-        sb.append(compileStatements());
-        sb.append(codeGenerator.generateGOTO("LBL_" + labelOne));
-        tokenizer.getNextToken(); // }
-        sb.append(codeGenerator.generateLabel("LBL_" + labelTwo));
-        return sb.toString();
+        codeGenerator.writeStatement(parseWhileStatement());
+        return flush();
+    }
+
+    /**
+     * Parses a while statement, the "while" keyword has already been read
+     * @return the while statement
+     */
+    private WhileStatement parseWhileStatement() {
+        expect(SYM_LEFT_PAREN);
+        Expression condition = parseExpression();
+        expect(SYM_RIGHT_PAREN);
+        expect(SYM_LEFT_BRACE);
+        List<Statement> statements = parseStatements();
+        expect(SYM_RIGHT_BRACE);
+        return new WhileStatement(condition, statements);
     }
 
     /**
@@ -381,11 +604,18 @@ public class Parser {
      * @return the VM code for a do statement, does not include the "do" keyword
      */
     public String compileDoStatement() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(compileSubroutineCall());
-        tokenizer.getNextToken(); // ;
-        sb.append(codeGenerator.generatePop(MemorySegment.TEMP, 0)); // pop off the useless value
-        return sb.toString();
+        codeGenerator.writeStatement(parseDoStatement());
+        return flush();
+    }
+
+    /**
+     * Parses a do statement, the "do" keyword has already been read
+     * @return the do statement
+     */
+    private DoStatement parseDoStatement() {
+        SubroutineCall call = parseSubroutineCall();
+        expect(SYM_SEMICOLON);
+        return new DoStatement(call);
     }
 
     /**
@@ -393,58 +623,75 @@ public class Parser {
      * @return the VM code for a return statement, does not include the "return" keyword
      */
     public String compileReturnStatement() {
-        StringBuilder sb = new StringBuilder();
-        String nextToken = tokenizer.getNextToken();
-        if (nextToken.equals(";")) { // return void
-            sb.append(codeGenerator.generatePush(MemorySegment.CONSTANT, 0));
-            sb.append("return\n");
-            return sb.toString();
-        } else {
-            tokenizer.backTrack();
-            sb.append(compileExpression());
-            tokenizer.getNextToken(); // ;
-        }
-        sb.append("return\n");
-        return sb.toString();
+        codeGenerator.writeStatement(parseReturnStatement());
+        return flush();
     }
 
+    /**
+     * Parses a return statement, the "return" keyword has already been read
+     * @return the return statement
+     */
+    private ReturnStatement parseReturnStatement() {
+        int nextToken = nextTokenId("an expression or ';'");
+        if (nextToken == SYM_SEMICOLON) { // return void
+            return new ReturnStatement(null);
+        }
+        tokenizer.backTrack();
+        Expression value = parseExpression();
+        expect(SYM_SEMICOLON);
+        return new ReturnStatement(value);
+    }
 
     /**
      * Compiles zero or more statements
      * @return the VM code of statements(s)
      */
     public String compileStatements() {
-        StringBuilder sb = new StringBuilder();
-        String nextToken = tokenizer.getNextToken();
-        Set<String> possibleStatements = new HashSet<>(Arrays.asList("let", "if",
-                "while", "do", "return"));
-        if (!possibleStatements.contains(nextToken)) {
-            tokenizer.backTrack();
-            return "";
-        }
-        // use reflection to call the appropriate statement compilation method
-        String methodName = "compile" + nextToken.substring(0, 1).toUpperCase() + nextToken.substring(1) + "Statement";
-        try {
-            sb.append(this.getClass().getMethod(methodName).invoke(this));
-            while (tokenizer.hasNextToken()) {
-                nextToken = tokenizer.getNextToken();
-                if (possibleStatements.contains(nextToken)) {
-                    // use reflection to call the appropriate statement compilation method
-                    methodName = "compile" + nextToken.substring(0, 1).toUpperCase() + nextToken.substring(1) + "Statement";
-                    try {
-                        sb.append(this.getClass().getMethod(methodName).invoke(this));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    tokenizer.backTrack();
-                    break;
-                }
+        codeGenerator.writeStatements(parseStatements());
+        return flush();
+    }
+
+    /**
+     * Parses zero or more statements
+     * @return the statements, in source order
+     */
+    public List<Statement> parseStatements() {
+        List<Statement> statements = new ArrayList<>();
+        while (tokenizer.hasNextToken()) {
+            int nextToken = tokenizer.getNextTokenId();
+            if (!isStatementKeyword(nextToken)) {
+                tokenizer.backTrack();
+                break;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            statements.add(parseStatement(nextToken));
+        }
+        return statements;
+    }
+
+    private static boolean isStatementKeyword(int id) {
+        return isKeyword(id) && STATEMENT_KEYWORDS[id];
+    }
+
+    /**
+     * Parses one statement whose keyword has already been read
+     * @param statementKeyword interned ID of the keyword the statement starts with
+     * @return the statement
+     */
+    private Statement parseStatement(int statementKeyword) {
+        switch (statementKeyword) {
+            case KW_LET:
+                return parseLetStatement();
+            case KW_IF:
+                return parseIfStatement();
+            case KW_WHILE:
+                return parseWhileStatement();
+            case KW_DO:
+                return parseDoStatement();
+            case KW_RETURN:
+                return parseReturnStatement();
+            default:
+                throw new IllegalArgumentException("Not a statement keyword: " + pool.name(statementKeyword));
         }
-        return sb.toString();
     }
 
     /**
@@ -453,39 +700,51 @@ public class Parser {
      */
     public int compileVarDec() {
         int numLocals = 0;
-        tokenizer.getNextToken(); // var
-        String varType = tokenizer.getNextToken(); // type
-        String varName = tokenizer.getNextToken();
+        expect(KW_VAR);
+        String varType = pool.name(expectType("a type"));
+        int varName = expectIdentifier("a variable name");
         subroutineST.define(varName, varType, SymbolKind.LOCAL);
         numLocals++;
-        String nextToken = tokenizer.getNextToken();
-        while (nextToken.equals(",")) {
-            varName = tokenizer.getNextToken();
+        int nextToken = nextTokenId("',' or ';'");
+        while (nextToken == SYM_COMMA) {
+            varName = expectIdentifier("a variable name");
             subroutineST.define(varName, varType, SymbolKind.LOCAL);
             numLocals++;
-            nextToken = tokenizer.getNextToken();
+            nextToken = nextTokenId("',' or ';'");
+        }
+        if (nextToken != SYM_SEMICOLON) {
+            throw unexpectedToken("',' or ';'");
         }
         return numLocals;
     }
 
     /**
-     * Compiles the VM code for a subroutine body declaration
-     * @return the VM code for a subroutine body declaration
+     * Adds all local variable declarations at the start of a subroutine body to the subroutine symbol table
+     * @return number of local variables (needed for subroutine declaration)
      */
-    public SubroutineBody compileSubroutineBody() {
+    private int compileVarDecs() {
         int numLocals = 0;
-        StringBuilder sb = new StringBuilder();
-        tokenizer.getNextToken(); // {
-        String nextToken = tokenizer.getNextToken();
-        while (nextToken.equals("var")) {
+        int nextToken = nextTokenId("a statement or '}'");
+        while (nextToken == KW_VAR) {
             tokenizer.backTrack();
             numLocals += compileVarDec();
-            nextToken = tokenizer.getNextToken();
+            nextToken = nextTokenId("a statement or '}'");
         }
         tokenizer.backTrack();
-        sb.append(compileStatements());
-        tokenizer.getNextToken(); // }
-        return new SubroutineBody(numLocals, sb.toString());
+        return numLocals;
+    }
+
+    /**
+     * Compiles the VM code for a subroutine body declaration
+     * @return the VM code for a subroutine body declaration
+     */
+    public SubroutineBody compileSubroutineBody() {
+        expect(SYM_LEFT_BRACE);
+        int numLocals = compileVarDecs();
+        List<Statement> statements = parseStatements();
+        expect(SYM_RIGHT_BRACE);
+        codeGenerator.writeStatements(statements);
+        return new SubroutineBody(numLocals, flush());
     }
 
     /**
@@ -493,24 +752,59 @@ public class Parser {
      * @return the VM code for a subroutine declaration
      */
     public String compileSubroutineDec() {
-        StringBuilder sb = new StringBuilder();
-        this.subroutineST = new SubroutineSymbolTable(); // reset the subroutine level symbol table
-        String subroutineType = tokenizer.getNextToken(); // "constructor" or "function" or "method"
-        tokenizer.getNextToken(); // return type
-        String subroutineName = tokenizer.getNextToken();
+        codeGenerator.writeSubroutine(parseSubroutineDec());
+        return flush();
+    }
+
+    /**
+     * Parses a subroutine declaration, resolving its arguments and local variables
+     * @return the subroutine declaration
+     */
+    public SubroutineDec parseSubroutineDec() {
+        this.subroutineST = new SubroutineSymbolTable(pool); // reset the subroutine level symbol table
+        int subroutineType = nextTokenId("a subroutine"); // "constructor" or "function" or "method"
+        int returnType = nextTokenId("a return type");
+        if (returnType != KW_VOID && !isType(returnType)) {
+            throw unexpectedToken("a return type");
+        }
+        String subroutineName = pool.name(expectIdentifier("a subroutine name"));
         compileParamList();
-        SubroutineBody compiledSB = compileSubroutineBody();
-        sb.append(String.format("function %s.%s %d\n", currentClassName, subroutineName, compiledSB.getNumLocals()));
-        if (subroutineType.equals("constructor")) {
-            sb.append(codeGenerator.generatePush(MemorySegment.CONSTANT, classST.getFieldVarCount()));
-            sb.append("call Memory.alloc 1\n" +
-                    "pop pointer 0\n");
-        } else if (subroutineType.equals("method")) {
-            sb.append(codeGenerator.generatePush(MemorySegment.ARGUMENT, 0));
-            sb.append(codeGenerator.generatePop(MemorySegment.POINTER, 0));
+        expect(SYM_LEFT_BRACE);
+        int numLocals = compileVarDecs();
+        List<Statement> statements = parseStatements();
+        expect(SYM_RIGHT_BRACE);
+        SubroutineKind subroutineKind;
+        if (subroutineType == KW_CONSTRUCTOR) {
+            subroutineKind = SubroutineKind.CONSTRUCTOR;
+        } else if (subroutineType == KW_METHOD) {
+            subroutineKind = SubroutineKind.METHOD;
+        } else {
+            subroutineKind = SubroutineKind.FUNCTION;
         }
-        sb.append(compiledSB.getVmCode());
-        return sb.toString();
+        return new SubroutineDec(subroutineKind, currentClassName, subroutineName, pool.name(returnType), numLocals,
+                classST.getFieldVarCount(), subroutineST, statements);
+    }
+
+    /**
+     * Checks that the class parses and that all of its variables resolve, without generating any VM code
+     * or writing any file. Undefined symbols are collected as they are found and parsing goes on, parsing
+     * stops at the first syntax error
+     * @return the problems found, in source order, empty if the class compiles
+     */
+    public List<Diagnostic> check() {
+        diagnostics = new ArrayList<>();
+        Diagnostic syntaxError = null;
+        try {
+            parseClass(subroutine -> { }); // nothing to generate, the AST can be dropped as it is built
+        } catch (CompileError e) {
+            syntaxError = e.getDiagnostic();
+        }
+        List<Diagnostic> found = Diagnostic.locate(tokenizer.getSource(), diagnostics);
+        if (syntaxError != null) {
+            found.add(syntaxError);
+        }
+        diagnostics = null;
+        return found;
     }
 
     /**
@@ -518,78 +812,71 @@ public class Parser {
      * @return the VM code for a class declaration
      */
     public String compileClass() {
-        StringBuilder sb = new StringBuilder();
-        this.classST = new ClassSymbolTable();
-        tokenizer.getNextToken(); // the "class" keyword
-        this.currentClassName = tokenizer.getNextToken(); // name of the class
-        tokenizer.getNextToken(); // {
-        String nextToken = tokenizer.getNextToken();
-        while (nextToken.equals("static") || nextToken.equals("field")) {
-            tokenizer.backTrack();
-            compileClassVarDec();
-            nextToken = tokenizer.getNextToken();
-        }
-        Set<String> subroutineDecKeywords = new HashSet<>(Arrays.asList("constructor", "function", "method"));
-        while (subroutineDecKeywords.contains(nextToken)) {
-            tokenizer.backTrack();
-            sb.append(compileSubroutineDec());
-            nextToken = tokenizer.getNextToken();
-        }
-        return sb.toString();
+        codeGenerator.writeClass(parseClass());
+        return flush();
     }
 
     /**
-     * Extracts the file path of a file without the extension
-     * @param filePath the file path
-     * @return the file path of a file without the extension
+     * Parses a class declaration, resolving its static and field variables
+     * @return the class declaration
      */
-    private String extractFileNameWithoutExtension(String filePath) {
-        int indexOfPeriod = filePath.lastIndexOf(".");
-        return filePath.substring(0, indexOfPeriod);
+    public ClassDec parseClass() {
+        List<SubroutineDec> subroutines = new ArrayList<>();
+        parseClass(subroutines::add);
+        return new ClassDec(currentClassName, classST, subroutines);
     }
 
     /**
-     * Retrieves the corresponding MemorySegment of a Symbol
-     * @param symbol a Symbol object
-     * @return the corresponding MemorySegment of a Symbol
+     * Parses a class declaration, handing each subroutine over as soon as it is parsed
+     * @param subroutines receives the subroutines in source order
      */
-    private MemorySegment getSymbolMemSeg(Symbol symbol) {
-        MemorySegment memSeg = MemorySegment.LOCAL; // give memSeg an arbitrary starting value
-        switch (symbol.getSymbolKind()) {
-            case FIELD:
-                memSeg = MemorySegment.THIS;
-                break;
-            case STATIC:
-                memSeg = MemorySegment.STATIC;
-                break;
-            case ARGUMENT:
-                memSeg = MemorySegment.ARGUMENT;
-                break;
-            case LOCAL: // unnecessary, kept for readability
-                memSeg = MemorySegment.LOCAL;
-                break;
+    private void parseClass(Consumer<SubroutineDec> subroutines) {
+        int nextToken = parseClassHeader();
+        while (nextToken == KW_CONSTRUCTOR || nextToken == KW_FUNCTION || nextToken == KW_METHOD) {
+            tokenizer.backTrack();
+            subroutines.accept(parseSubroutineDec());
+            expectMore("a subroutine or '}'");
+            nextToken = tokenizer.getNextTokenId();
+        }
+        if (nextToken != SYM_RIGHT_BRACE) {
+            throw unexpectedToken("a subroutine or '}'");
+        }
+        if (tokenizer.hasNextToken()) { // a file holds one class
+            tokenizer.getNextTokenId();
+            throw unexpectedToken("the end of the file");
         }
-        return memSeg;
     }
 
     /**
-     * Looks up a symbol from the two symbol tables, assuming that the symbol exists
-     * @param symbolName the name of the symbol
-     * @return the found Symbol object
+     * Parses the start of a class declaration up to its first subroutine, resolving its static and field
+     * variables
+     * @return interned ID of the token after the variable declarations, which has been read
      */
-    private Symbol lookUpSymbol(String symbolName) {
-        Optional<Symbol> symbol = subroutineST.lookUp(symbolName);
-        if (!symbol.isPresent()) {
-            symbol = classST.lookUp(symbolName);
-        }
-        /*
-         * probably not needed, can assume Jack programs are well formed and will not
-         * use a variable that is undeclared
-         */
-        if (!symbol.isPresent()) {
-            System.out.println(String.format("Symbol %s cannot be found", symbolName));
-            throw new RuntimeException();
+    int parseClassHeader() {
+        this.classST = new ClassSymbolTable(pool);
+        expect(KW_CLASS);
+        this.currentClassName = pool.name(expectIdentifier("a class name"));
+        expect(SYM_LEFT_BRACE);
+        int nextToken = nextTokenId("a subroutine or '}'");
+        while (nextToken == KW_STATIC || nextToken == KW_FIELD) {
+            tokenizer.backTrack();
+            compileClassVarDec();
+            nextToken = nextTokenId("a subroutine or '}'");
         }
-        return symbol.get();
+        return nextToken;
+    }
+
+    String getCurrentClassName() {
+        return currentClassName;
+    }
+
+    /**
+     * Extracts the file path of a file without the extension
+     * @param filePath the file path
+     * @return the file path of a file without the extension
+     */
+    private String extractFileNameWithoutExtension(String filePath) {
+        int indexOfPeriod = filePath.lastIndexOf(".");
+        return filePath.substring(0, indexOfPeriod);
     }
 }
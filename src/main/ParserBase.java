@@ -0,0 +1,139 @@
+package main;
+
+import symbol.Symbol;
+import symbol.SymbolKind;
+import symboltable.ClassSymbolTable;
+import symboltable.SubroutineSymbolTable;
+
+import java.util.Collections;
+import java.util.List;
+
+import static main.InternPool.*;
+
+/**
+ * What main.Parser and main.FlatParser share: reading the tokens the grammar expects, reporting the ones
+ * it does not expect as located syntax errors, and resolving variables in the two symbol tables
+ */
+abstract class ParserBase {
+
+    protected final Tokenizer tokenizer;
+    protected final InternPool pool; // keywords, symbols and identifiers are compared by their interned IDs
+    protected ClassSymbolTable classST;
+    protected SubroutineSymbolTable subroutineST;
+    protected List<Diagnostic> diagnostics; // undefined symbols found while checking, null when compiling
+
+    /**
+     * Initializes a parser over a token stream, symbols are interned into the tokenizer's pool
+     * @param tokenizer the tokens of the Jack source code
+     */
+    protected ParserBase(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+        this.pool = tokenizer.getPool();
+    }
+
+    /**
+     * Reads the next token, which must be a certain keyword or symbol
+     * @param expected interned ID of the keyword or symbol
+     */
+    protected final void expect(int expected) {
+        expectMore("'" + pool.name(expected) + "'");
+        if (tokenizer.getNextTokenId() != expected) {
+            throw unexpectedToken("'" + pool.name(expected) + "'");
+        }
+    }
+
+    /**
+     * Reads the next token, whatever it is
+     * @param expected what is expected next, for the error at the end of the file
+     * @return interned ID of the token
+     */
+    protected final int nextTokenId(String expected) {
+        expectMore(expected);
+        return tokenizer.getNextTokenId();
+    }
+
+    /**
+     * Reads the next token, which must be an identifier, e.g. the name of a class, variable or subroutine
+     * @param expected what is expected next, for the errors
+     * @return interned ID of the identifier
+     */
+    protected final int expectIdentifier(String expected) {
+        int id = nextTokenId(expected);
+        if (tokenizer.getCurrentKind() != TokenKind.IDENTIFIER) {
+            throw unexpectedToken(expected);
+        }
+        return id;
+    }
+
+    /**
+     * Reads the next token, which must be the type of a variable
+     * @param expected what is expected next, for the errors
+     * @return interned ID of the type
+     */
+    protected final int expectType(String expected) {
+        int id = nextTokenId(expected);
+        if (!isType(id)) {
+            throw unexpectedToken(expected);
+        }
+        return id;
+    }
+
+    /**
+     * Checks whether the current token is a type: int, char, boolean or a class name
+     * @param id interned ID of the current token
+     * @return true if it is a type
+     */
+    protected final boolean isType(int id) {
+        return id == KW_INT || id == KW_CHAR || id == KW_BOOLEAN || tokenizer.getCurrentKind() == TokenKind.IDENTIFIER;
+    }
+
+    /**
+     * Checks that the source has another token
+     * @param expected what is expected next, for the error at the end of the file
+     */
+    protected final void expectMore(String expected) {
+        if (!tokenizer.hasNextToken()) {
+            throw new CompileError(locate(new Diagnostic(Diagnostic.Kind.SYNTAX_ERROR, tokenizer.getSource().limit(),
+                    "Expected " + expected + " but reached the end of the file")));
+        }
+    }
+
+    /**
+     * Creates the error for a current token that does not fit the grammar
+     * @param expected what was expected instead
+     * @return the error to throw
+     */
+    protected final CompileError unexpectedToken(String expected) {
+        return new CompileError(locate(new Diagnostic(Diagnostic.Kind.SYNTAX_ERROR, tokenizer.getCurrentTokenStart(),
+                "Expected " + expected + " but found '" + tokenizer.getCurrentToken() + "'")));
+    }
+
+    protected final Diagnostic locate(Diagnostic diagnostic) {
+        return Diagnostic.locate(tokenizer.getSource(), Collections.singletonList(diagnostic)).get(0);
+    }
+
+    /**
+     * Looks up a symbol from the two symbol tables. An undefined symbol is an error when compiling, when
+     * checking it is recorded and resolves to a placeholder so that parsing can go on
+     * @param symbolName interned ID of the name of the symbol
+     * @param offset offset of the name in the source
+     * @return the found Symbol object
+     */
+    protected final Symbol lookUpSymbol(int symbolName, int offset) {
+        Symbol symbol = subroutineST.get(symbolName);
+        if (symbol == null) {
+            symbol = classST.get(symbolName);
+        }
+        if (symbol == null) {
+            String name = pool.name(symbolName);
+            Diagnostic undefined = new Diagnostic(Diagnostic.Kind.UNDEFINED_SYMBOL, offset,
+                    String.format("Symbol %s cannot be found", name));
+            if (diagnostics == null) {
+                throw new CompileError(locate(undefined));
+            }
+            diagnostics.add(undefined);
+            return new Symbol("int", SymbolKind.LOCAL, name, 0);
+        }
+        return symbol;
+    }
+}
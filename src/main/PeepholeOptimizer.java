@@ -0,0 +1,801 @@
+package main;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Removes wasteful VM instruction sequences, sitting between main.CodeGenerator and the writer of the
+ * VM code. The instructions of the current function are kept in a main.VmProgram, and every time an
+ * instruction is added, the rules are matched against a window over the last few instructions and
+ * rewrite them until none matches, so that one rewrite can enable the next. When the function is
+ * complete, labels nothing jumps to are dropped and the function is written out, so memory use does not
+ * grow with the size of the class. The rules assume VM code as this compiler generates it, in particular
+ * that temp 0 is only used within a statement. Constants are folded with the 16-bit two's complement
+ * arithmetic of the Hack platform, and the constants assigned to locals are propagated up to the next
+ * label, where control flow may join from elsewhere. Multiplications by constants are inlined as
+ * additions where that is cheaper than calling Math.multiply, using temp 1 and temp 2 within the inlined
+ * code
+ */
+public class PeepholeOptimizer implements VmWriter {
+
+    public enum Rule {
+        NEGATIONS, // not; not and neg; neg cancel out
+        REDUNDANT_MOVES, // push x; pop x and pop temp 0; push temp 0
+        ARRAY_STORES, // a value that does not read THAT is pushed after aligning THAT, not kept in temp 0
+        BOOLEAN_CONSTANTS, // negated true and false, and conditions that are always true or always false
+        INVERTED_BRANCHES, // eq/gt/lt; not; if-goto A; goto B; label A is eq/gt/lt; if-goto B; label A
+        JUMPS_TO_NEXT, // a goto to a label that follows it directly
+        UNREACHABLE_CODE, // instructions after goto or return, up to the next label
+        UNUSED_LABELS, // labels no goto or if-goto of the function refers to
+        CONSTANT_FOLDING, // operations, including Math.multiply and Math.divide, on constants
+        CONSTANT_PROPAGATION, // reads of a local that was assigned a constant since the last label
+        STRENGTH_REDUCTION // multiplication by a constant as additions, division by 1 as nothing
+    }
+
+    private static final int WORD_MIN = Short.MIN_VALUE; // the smallest Hack integer, not a VM constant
+    // estimated Hack instructions of call Math.multiply 2, the call and return and the 16 rounds of the loop
+    private static final int MULTIPLY_COST = 1000;
+    private static final int MAX_INLINED_MULTIPLY = 16; // the most VM instructions a multiplication becomes
+
+    private final VmWriter out;
+    private final Set<Rule> rules;
+    private final VmProgram function = new VmProgram(); // the instructions of the current function so far
+    private boolean unreachable = false; // true after a goto or return, until the next label
+    private int[] localValues = new int[0]; // the values of the locals of the current function,
+    private boolean[] localKnown = new boolean[0]; // where they are known to be constants
+    private int numReceived = 0;
+    private int numWritten = 0;
+
+    /**
+     * Initializes a PeepholeOptimizer with all rules
+     * @param out where to write the optimized VM instructions to
+     */
+    public PeepholeOptimizer(VmWriter out) {
+        this(out, EnumSet.allOf(Rule.class));
+    }
+
+    /**
+     * Initializes a PeepholeOptimizer with some of the rules
+     * @param out where to write the optimized VM instructions to
+     * @param rules the rules to apply
+     */
+    public PeepholeOptimizer(VmWriter out, Set<Rule> rules) {
+        this.out = out;
+        this.rules = EnumSet.noneOf(Rule.class);
+        this.rules.addAll(rules);
+    }
+
+    /**
+     * Optimizes a whole program
+     * @param program the VM program
+     * @return the optimized program
+     */
+    public static VmProgram optimize(VmProgram program) {
+        VmProgram optimized = new VmProgram();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(optimized);
+        program.replay(optimizer);
+        optimizer.flush();
+        return optimized;
+    }
+
+    public int getNumReceived() {
+        return numReceived;
+    }
+
+    public int getNumWritten() {
+        return numWritten;
+    }
+
+    /**
+     * Returns how many instructions were removed so far, of the functions written out, negative where
+     * inlined multiplications added more than the other rules removed
+     * @return the number of instructions received minus the number written
+     */
+    public int getNumRemoved() {
+        return numReceived - function.size() - numWritten;
+    }
+
+    /**
+     * Writes out the current function, call once all instructions were given to the optimizer
+     */
+    public void flush() {
+        writeFunction();
+    }
+
+    @Override
+    public void emitPush(MemorySegment segment, int index) {
+        if (accept(VmProgram.PUSH)) {
+            if (segment == MemorySegment.LOCAL && isKnownLocal(index)) {
+                pushConstant(localValues[index]);
+            } else {
+                function.emitPush(segment, index);
+            }
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitPop(MemorySegment segment, int index) {
+        if (accept(VmProgram.POP)) {
+            if (segment == MemorySegment.LOCAL && index >= 0 && index < localKnown.length) {
+                int length = constantLength(0);
+                localKnown[index] = length > 0 && rules.contains(Rule.CONSTANT_PROPAGATION);
+                localValues[index] = length > 0 ? constantValue(0) : 0;
+            }
+            function.emitPop(segment, index);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitArithmetic(int opcode) {
+        if (accept(opcode)) {
+            function.emitArithmetic(opcode);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitLabel(String label) {
+        if (accept(VmProgram.LABEL)) {
+            Arrays.fill(localKnown, false);
+            function.emitLabel(label);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitLabel(String prefix, String kind, int number) {
+        if (accept(VmProgram.LABEL)) {
+            Arrays.fill(localKnown, false);
+            function.emitLabel(prefix, kind, number);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitGOTO(String label) {
+        if (accept(VmProgram.GOTO)) {
+            function.emitGOTO(label);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitGOTO(String prefix, String kind, int number) {
+        if (accept(VmProgram.GOTO)) {
+            function.emitGOTO(prefix, kind, number);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitIfGOTO(String label) {
+        if (accept(VmProgram.IF_GOTO)) {
+            function.emitIfGOTO(label);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitIfGOTO(String prefix, String kind, int number) {
+        if (accept(VmProgram.IF_GOTO)) {
+            function.emitIfGOTO(prefix, kind, number);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitFunction(String funcName, int numLocals) {
+        if (accept(VmProgram.FUNCTION)) {
+            startLocals(numLocals);
+            function.emitFunction(funcName, numLocals);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitFunction(String className, String funcName, int numLocals) {
+        if (accept(VmProgram.FUNCTION)) {
+            startLocals(numLocals);
+            function.emitFunction(className, funcName, numLocals);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitFuncCall(String funcName, int numArgs) {
+        if (accept(VmProgram.CALL)) {
+            function.emitFuncCall(funcName, numArgs);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitFuncCall(String className, String funcName, int numArgs) {
+        if (accept(VmProgram.CALL)) {
+            function.emitFuncCall(className, funcName, numArgs);
+            reduce();
+        }
+    }
+
+    @Override
+    public void emitReturn() {
+        if (accept(VmProgram.RETURN)) {
+            function.emitReturn();
+            reduce();
+        }
+    }
+
+    /**
+     * Decides whether to add an instruction to the current function, a new function first writes out
+     * the previous one
+     * @param opcode the opcode of the instruction
+     * @return false if the instruction is dropped because it can never be executed
+     */
+    private boolean accept(int opcode) {
+        numReceived++;
+        if (opcode == VmProgram.FUNCTION) {
+            writeFunction();
+        } else if (opcode != VmProgram.LABEL && unreachable && rules.contains(Rule.UNREACHABLE_CODE)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the rules to the end of the current function until none matches
+     */
+    private void reduce() {
+        while (rewrite()) {
+            // each rewrite may let another rule match
+        }
+        int last = opcode(0);
+        unreachable = last == VmProgram.GOTO || last == VmProgram.RETURN;
+    }
+
+    /**
+     * Applies the first rule that matches the end of the current function
+     * @return true if a rule matched
+     */
+    private boolean rewrite() {
+        int size = function.size();
+        int last = opcode(0);
+        if (rules.contains(Rule.NEGATIONS) && (last == VmProgram.NOT || last == VmProgram.NEG)
+                && opcode(1) == last) {
+            function.truncate(size - 2);
+            return true;
+        }
+        if (rules.contains(Rule.REDUNDANT_MOVES) && isMove(1, 0)) {
+            function.truncate(size - 2);
+            return true;
+        }
+        if (rules.contains(Rule.ARRAY_STORES) && last == VmProgram.POP && isArrayStoreOfSimpleValue()) {
+            MemorySegment segment = function.segment(size - 5);
+            int index = function.number(size - 5);
+            function.truncate(size - 5);
+            function.emitPop(MemorySegment.POINTER, 1);
+            function.emitPush(segment, index);
+            function.emitPop(MemorySegment.THAT, 0);
+            return true;
+        }
+        if (rules.contains(Rule.CONSTANT_FOLDING) && foldConstants()) {
+            return true;
+        }
+        if (rules.contains(Rule.STRENGTH_REDUCTION) && last == VmProgram.CALL && reduceStrength()) {
+            return true;
+        }
+        if (rules.contains(Rule.BOOLEAN_CONSTANTS) && rewriteBooleanConstant()) {
+            return true;
+        }
+        if (last != VmProgram.LABEL) {
+            return false;
+        }
+        int label = function.nameId(size - 1);
+        if (rules.contains(Rule.INVERTED_BRANCHES) && opcode(1) == VmProgram.GOTO
+                && opcode(2) == VmProgram.IF_GOTO && function.nameId(size - 3) == label
+                && opcode(3) == VmProgram.NOT && isComparison(opcode(4))) {
+            String labelName = function.name(size - 1);
+            String target = function.name(size - 2);
+            function.truncate(size - 4);
+            function.emitIfGOTO(target);
+            function.emitLabel(labelName);
+            return true;
+        }
+        if (rules.contains(Rule.JUMPS_TO_NEXT)) {
+            int fromEnd = 1;
+            while (opcode(fromEnd) == VmProgram.LABEL) {
+                fromEnd++;
+            }
+            if (opcode(fromEnd) == VmProgram.GOTO && function.nameId(size - 1 - fromEnd) == label) {
+                function.remove(size - 1 - fromEnd);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces an operation on constants with its result, unless that would not make the code shorter,
+     * as for push constant 1; neg. Division is left to run time when it is by zero, where Sys.error is
+     * called, or involves the smallest integer, where implementations of Math.divide disagree
+     * @return true if a rewrite was made
+     */
+    private boolean foldConstants() {
+        int size = function.size();
+        int last = opcode(0);
+        int rightLength = constantLength(1);
+        if (rightLength == 0) {
+            return false;
+        }
+        int right = constantValue(1);
+        if (last == VmProgram.NEG || last == VmProgram.NOT) {
+            int value = last == VmProgram.NEG ? -right : ~right;
+            if (constantSize(value) > rightLength) {
+                return false;
+            }
+            function.truncate(size - 1 - rightLength);
+            pushConstant(value);
+            return true;
+        }
+        int leftLength = constantLength(1 + rightLength);
+        if (leftLength == 0) {
+            return false;
+        }
+        int left = constantValue(1 + rightLength);
+        int value;
+        switch (last) {
+            case VmProgram.ADD:
+                value = left + right;
+                break;
+            case VmProgram.SUB:
+                value = left - right;
+                break;
+            case VmProgram.AND:
+                value = left & right;
+                break;
+            case VmProgram.OR:
+                value = left | right;
+                break;
+            case VmProgram.EQ:
+                value = left == right ? -1 : 0;
+                break;
+            case VmProgram.GT:
+                value = left > right ? -1 : 0;
+                break;
+            case VmProgram.LT:
+                value = left < right ? -1 : 0;
+                break;
+            case VmProgram.CALL:
+                if (isCall(0, "Math.multiply")) {
+                    value = left * right;
+                } else if (isCall(0, "Math.divide") && right != 0 && left != WORD_MIN && right != WORD_MIN) {
+                    value = left / right;
+                } else {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+        function.truncate(size - 1 - rightLength - leftLength);
+        pushConstant(value);
+        return true;
+    }
+
+    /**
+     * Replaces a call to Math.multiply with a constant operand by additions, when the cost model finds
+     * them cheaper, and drops a division by 1. The other operand is pushed again where it is a variable,
+     * and kept in temp 1 where it is computed. Other divisions are left alone: Hack has no shift, so there
+     * is no cheap division by a power of two that rounds negative numbers towards zero like Math.divide
+     * @return true if a rewrite was made
+     */
+    private boolean reduceStrength() {
+        int size = function.size();
+        int rightLength = constantLength(1);
+        if (isCall(0, "Math.divide")) {
+            if (rightLength == 0 || constantValue(1) != 1) {
+                return false;
+            }
+            function.truncate(size - 1 - rightLength);
+            return true;
+        }
+        if (!isCall(0, "Math.multiply")) {
+            return false;
+        }
+        int multiplier;
+        int length; // of the call and the operands that are replaced
+        MemorySegment segment = null; // of the operand that is pushed again, null if it is kept in temp 1
+        int index = 0;
+        if (rightLength > 0) {
+            multiplier = constantValue(1);
+            length = 1 + rightLength;
+            if (isVariable(1 + rightLength)) {
+                segment = function.segment(size - 2 - rightLength);
+                index = function.number(size - 2 - rightLength);
+                length++;
+            }
+        } else if (isVariable(1) && constantLength(2) > 0) {
+            multiplier = constantValue(2);
+            segment = function.segment(size - 2);
+            index = function.number(size - 2);
+            length = 2 + constantLength(2);
+        } else {
+            return false;
+        }
+        VmProgram multiply = inlineMultiply(segment, index, multiplier);
+        if (multiply == null) {
+            return false;
+        }
+        function.truncate(size - length);
+        multiply.replay(function);
+        return true;
+    }
+
+    /**
+     * Chooses the cheapest way to multiply by a constant with additions: adding the operand up, or going
+     * through the bits of the multiplier, or of the multiplier plus one and subtracting the operand once
+     * @param segment the segment of the operand, null if it is on the stack and is to be kept in temp 1
+     * @param index the index of the operand
+     * @param multiplier the constant
+     * @return the instructions, null if calling Math.multiply is cheaper
+     */
+    private static VmProgram inlineMultiply(MemorySegment segment, int index, int multiplier) {
+        if (multiplier == WORD_MIN) {
+            return null;
+        }
+        int factor = Math.abs(multiplier);
+        if (factor == 1 && segment == null) { // the product is already on the stack
+            VmProgram multiply = new VmProgram();
+            if (multiplier < 0) {
+                multiply.emitArithmetic(VmProgram.NEG);
+            }
+            return multiply;
+        }
+        VmProgram best = null;
+        int bestCost = MULTIPLY_COST;
+        for (int form = 0; form < 3; form++) {
+            VmProgram multiply = new VmProgram();
+            if (segment == null) {
+                multiply.emitPop(MemorySegment.TEMP, 1);
+            }
+            MemorySegment operand = segment == null ? MemorySegment.TEMP : segment;
+            int operandIndex = segment == null ? 1 : index;
+            if (factor == 0) {
+                multiply.emitPush(MemorySegment.CONSTANT, 0);
+            } else if (form == 0) {
+                multiply.emitPush(operand, operandIndex);
+                for (int i = 1; i < factor && multiply.size() <= MAX_INLINED_MULTIPLY; i++) {
+                    multiply.emitPush(operand, operandIndex);
+                    multiply.emitArithmetic(VmProgram.ADD);
+                }
+            } else if (form == 1) {
+                multiplyBits(multiply, operand, operandIndex, factor);
+            } else if (factor < Short.MAX_VALUE) {
+                multiplyBits(multiply, operand, operandIndex, factor + 1);
+                multiply.emitPush(operand, operandIndex);
+                multiply.emitArithmetic(VmProgram.SUB);
+            } else {
+                continue;
+            }
+            if (multiplier < 0) {
+                multiply.emitArithmetic(VmProgram.NEG);
+            }
+            int cost = cost(multiply);
+            if (multiply.size() <= MAX_INLINED_MULTIPLY && cost < bestCost) {
+                best = multiply;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Multiplies by going through the bits of the multiplier from the highest, doubling the product for
+     * each and adding the operand for the ones that are set. Doubling needs the product twice, so it goes
+     * through temp 2, except at first when the product is the operand
+     * @param multiply where to write the instructions to
+     * @param segment the segment of the operand
+     * @param index the index of the operand
+     * @param factor the multiplier, positive
+     */
+    private static void multiplyBits(VmProgram multiply, MemorySegment segment, int index, int factor) {
+        multiply.emitPush(segment, index);
+        boolean productIsOperand = true;
+        for (int bit = Integer.highestOneBit(factor) >> 1; bit > 0; bit >>= 1) {
+            if (productIsOperand) {
+                multiply.emitPush(segment, index);
+            } else {
+                multiply.emitPop(MemorySegment.TEMP, 2);
+                multiply.emitPush(MemorySegment.TEMP, 2);
+                multiply.emitPush(MemorySegment.TEMP, 2);
+            }
+            multiply.emitArithmetic(VmProgram.ADD);
+            productIsOperand = false;
+            if ((factor & bit) != 0) {
+                multiply.emitPush(segment, index);
+                multiply.emitArithmetic(VmProgram.ADD);
+            }
+        }
+    }
+
+    /**
+     * Estimates how many Hack instructions a typical VM translator generates for straight-line code,
+     * which is also how many are executed
+     * @param code the VM instructions
+     * @return the estimate
+     */
+    private static int cost(VmProgram code) {
+        int cost = 0;
+        for (int instruction = 0; instruction < code.size(); instruction++) {
+            switch (code.opcode(instruction)) {
+                case VmProgram.PUSH:
+                    switch (code.segment(instruction)) {
+                        case LOCAL: case ARGUMENT: case THIS: case THAT:
+                            cost += 10; // D = base + index, then the stack
+                            break;
+                        default:
+                            cost += 7;
+                    }
+                    break;
+                case VmProgram.POP:
+                    cost += 5;
+                    break;
+                case VmProgram.NEG: case VmProgram.NOT:
+                    cost += 3;
+                    break;
+                default:
+                    cost += 5;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Matches the idioms of true and false: push constant 0 is false, push constant 1; neg is true
+     * @return true if a rewrite was made
+     */
+    private boolean rewriteBooleanConstant() {
+        int size = function.size();
+        int last = opcode(0);
+        if (last == VmProgram.NOT && opcode(1) == VmProgram.NEG && isPushConstant(2, 1)) { // ~true
+            function.truncate(size - 3);
+            function.emitPush(MemorySegment.CONSTANT, 0);
+            return true;
+        }
+        if (last != VmProgram.IF_GOTO) {
+            return false;
+        }
+        if (isPushConstant(1, 0)) { // never jumps
+            function.truncate(size - 2);
+            return true;
+        }
+        if ((opcode(1) == VmProgram.NOT && isPushConstant(2, 0))
+                || (opcode(1) == VmProgram.NEG && isPushConstant(2, 1))) { // always jumps
+            String target = function.name(size - 1);
+            function.truncate(size - 3);
+            function.emitGOTO(target);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Matches push x; pop temp 0; pop pointer 1; push temp 0; pop that 0, the end of a store into an
+     * array, where x does not depend on THAT
+     * @return true if the end of the function is such a store
+     */
+    private boolean isArrayStoreOfSimpleValue() {
+        int size = function.size();
+        if (size < 5 || opcode(4) != VmProgram.PUSH || !isSegment(3, VmProgram.POP, MemorySegment.TEMP, 0)
+                || !isSegment(2, VmProgram.POP, MemorySegment.POINTER, 1)
+                || !isSegment(1, VmProgram.PUSH, MemorySegment.TEMP, 0)
+                || !isSegment(0, VmProgram.POP, MemorySegment.THAT, 0)) {
+            return false;
+        }
+        MemorySegment value = function.segment(size - 5);
+        return value != MemorySegment.THAT && value != MemorySegment.POINTER && value != MemorySegment.TEMP;
+    }
+
+    /**
+     * Matches push x; pop x, or pop temp 0; push temp 0 since temp 0 is only used within a statement
+     * @param first distance of the first instruction from the end of the function
+     * @param second distance of the second instruction from the end of the function
+     * @return true if the two instructions can be dropped
+     */
+    private boolean isMove(int first, int second) {
+        int opcode = opcode(first);
+        if (opcode != VmProgram.PUSH && opcode != VmProgram.POP) {
+            return false;
+        }
+        int instruction = function.size() - 1 - first;
+        MemorySegment segment = function.segment(instruction);
+        int index = function.number(instruction);
+        if (opcode == VmProgram.PUSH && segment != MemorySegment.CONSTANT) {
+            return isSegment(second, VmProgram.POP, segment, index);
+        }
+        if (opcode == VmProgram.POP && segment == MemorySegment.TEMP && index == 0) {
+            return isSegment(second, VmProgram.PUSH, segment, index);
+        }
+        return false;
+    }
+
+    /**
+     * Returns how many instructions the constant that ends at an instruction takes, push constant n, or
+     * push constant n followed by neg or not
+     * @param fromEnd distance of the last instruction of the constant from the end of the function
+     * @return the number of instructions, 0 if the instruction does not end a constant
+     */
+    private int constantLength(int fromEnd) {
+        int opcode = opcode(fromEnd);
+        if (opcode == VmProgram.PUSH) {
+            return function.segment(function.size() - 1 - fromEnd) == MemorySegment.CONSTANT ? 1 : 0;
+        }
+        if ((opcode == VmProgram.NEG || opcode == VmProgram.NOT) && constantLength(fromEnd + 1) == 1) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the value of the constant that ends at an instruction
+     * @param fromEnd distance of the last instruction of the constant from the end of the function
+     * @return the value as a Hack integer
+     */
+    private int constantValue(int fromEnd) {
+        int opcode = opcode(fromEnd);
+        if (opcode == VmProgram.PUSH) {
+            return (short) function.number(function.size() - 1 - fromEnd);
+        }
+        int value = constantValue(fromEnd + 1);
+        return (short) (opcode == VmProgram.NEG ? -value : ~value);
+    }
+
+    /**
+     * Returns how many instructions pushConstant takes for a value
+     * @param value the value
+     * @return the number of instructions
+     */
+    private static int constantSize(int value) {
+        return (short) value >= 0 ? 1 : 2;
+    }
+
+    /**
+     * Pushes a value the way the code generator would, push constant n; neg for a negative one, with
+     * push constant 32767; not for the smallest integer, which has no positive counterpart
+     * @param value the value, wrapped to 16 bits
+     */
+    private void pushConstant(int value) {
+        short word = (short) value;
+        if (word >= 0) {
+            function.emitPush(MemorySegment.CONSTANT, word);
+        } else if (word == WORD_MIN) {
+            function.emitPush(MemorySegment.CONSTANT, Short.MAX_VALUE);
+            function.emitArithmetic(VmProgram.NOT);
+        } else {
+            function.emitPush(MemorySegment.CONSTANT, -word);
+            function.emitArithmetic(VmProgram.NEG);
+        }
+    }
+
+    private boolean isCall(int fromEnd, String funcName) {
+        int instruction = function.size() - 1 - fromEnd;
+        return opcode(fromEnd) == VmProgram.CALL && function.number(instruction) == 2
+                && function.name(instruction).equals(funcName);
+    }
+
+    /**
+     * Checks that an instruction pushes a variable, which can be pushed again for the same value as long
+     * as nothing is popped into it or into pointer
+     * @param fromEnd distance of the instruction from the end of the function
+     * @return true for a push of a segment other than constant and temp
+     */
+    private boolean isVariable(int fromEnd) {
+        if (opcode(fromEnd) != VmProgram.PUSH) {
+            return false;
+        }
+        MemorySegment segment = function.segment(function.size() - 1 - fromEnd);
+        return segment != MemorySegment.CONSTANT && segment != MemorySegment.TEMP;
+    }
+
+    private boolean isKnownLocal(int index) {
+        return index >= 0 && index < localKnown.length && localKnown[index];
+    }
+
+    /**
+     * Forgets the locals of the previous function, the locals of the new one start out as 0
+     * @param numLocals the number of locals of the new one
+     */
+    private void startLocals(int numLocals) {
+        if (numLocals < 0) {
+            numLocals = 0;
+        }
+        localValues = new int[numLocals];
+        localKnown = new boolean[numLocals];
+        Arrays.fill(localKnown, rules.contains(Rule.CONSTANT_PROPAGATION));
+    }
+
+    private boolean isPushConstant(int fromEnd, int value) {
+        return isSegment(fromEnd, VmProgram.PUSH, MemorySegment.CONSTANT, value);
+    }
+
+    private boolean isSegment(int fromEnd, int opcode, MemorySegment segment, int index) {
+        int instruction = function.size() - 1 - fromEnd;
+        return opcode(fromEnd) == opcode && function.segment(instruction) == segment
+                && function.number(instruction) == index;
+    }
+
+    /**
+     * Returns the opcode of an instruction counted from the end of the current function
+     * @param fromEnd 0 for the last instruction
+     * @return the opcode, -1 if there is no such instruction
+     */
+    private int opcode(int fromEnd) {
+        int instruction = function.size() - 1 - fromEnd;
+        return instruction < 0 ? -1 : function.opcode(instruction);
+    }
+
+    private static boolean isComparison(int opcode) {
+        return opcode == VmProgram.EQ || opcode == VmProgram.GT || opcode == VmProgram.LT;
+    }
+
+    /**
+     * Writes out the current function without the labels it never jumps to and the code that only such
+     * labels made reachable, and starts a new one
+     */
+    private void writeFunction() {
+        boolean[] dropped = new boolean[function.size()];
+        while (dropUnreachable(dropped)) {
+            // dropped code may have held the last jump to a label
+        }
+        for (int instruction = 0; instruction < function.size(); instruction++) {
+            if (!dropped[instruction]) {
+                function.replay(out, instruction, instruction + 1);
+                numWritten++;
+            }
+        }
+        function.clear();
+        unreachable = false;
+    }
+
+    /**
+     * Marks the unused labels of the current function, and the instructions after a goto or return up to
+     * the next label that is kept
+     * @param dropped the instructions marked so far, updated in place
+     * @return true if any instruction was newly marked
+     */
+    private boolean dropUnreachable(boolean[] dropped) {
+        boolean[] referenced = new boolean[function.numNames()];
+        for (int instruction = 0; instruction < function.size(); instruction++) {
+            int opcode = function.opcode(instruction);
+            if (!dropped[instruction] && (opcode == VmProgram.GOTO || opcode == VmProgram.IF_GOTO)) {
+                referenced[function.nameId(instruction)] = true;
+            }
+        }
+        boolean dropUnused = rules.contains(Rule.UNUSED_LABELS);
+        boolean dropUnreachable = rules.contains(Rule.UNREACHABLE_CODE);
+        boolean changed = false;
+        boolean reachable = true;
+        for (int instruction = 0; instruction < function.size(); instruction++) {
+            if (dropped[instruction]) {
+                continue;
+            }
+            int opcode = function.opcode(instruction);
+            if (opcode == VmProgram.LABEL) {
+                if (dropUnused && !referenced[function.nameId(instruction)]) {
+                    dropped[instruction] = true;
+                    changed = true;
+                    continue;
+                }
+                reachable = true;
+            } else if (!reachable && dropUnreachable) {
+                dropped[instruction] = true;
+                changed = true;
+                continue;
+            }
+            reachable = opcode != VmProgram.GOTO && opcode != VmProgram.RETURN;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,39 @@
+package main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * main.ByteScanner that looks at one byte at a time, used when the Vector API is not available
+ */
+public class ScalarByteScanner implements ByteScanner {
+
+    @Override
+    public int skipWhitespace(ByteBuffer source, int from, int limit) {
+        int i = from;
+        while (i < limit && (source.get(i) & 0xFF) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public int indexOfLineEnd(ByteBuffer source, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            byte b = source.get(i);
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOfBlockCommentEnd(ByteBuffer source, int from, int limit) {
+        for (int i = from; i < limit - 1; i++) {
+            if (source.get(i) == '*' && source.get(i + 1) == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
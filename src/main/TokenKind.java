@@ -0,0 +1,5 @@
+package main;
+
+public enum TokenKind {
+    KEYWORD, SYMBOL, INT_CONST, STRING_CONST, IDENTIFIER
+}
@@ -0,0 +1,265 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact, fully materialized token stream of a source file. Tokens are stored as parallel int arrays
+ * (kind, interned ID, start offset, length) into the shared source buffer instead of one String object
+ * per token
+ */
+public class TokenTable {
+
+    private static final TokenKind[] KINDS = TokenKind.values();
+
+    private final ByteBuffer source; // the ASCII source code the tokens point into
+    private final InternPool pool; // the pool the IDs of the tokens come from
+    private int[] kinds; // TokenKind ordinal of each token
+    private int[] ids; // interned ID of each token, NO_ID for constants
+    private int[] starts; // offset of the first byte of each token
+    private int[] lengths; // number of bytes of each token
+    private int size;
+
+    TokenTable(ByteBuffer source, InternPool pool, int initialCapacity) {
+        this.source = source;
+        this.pool = pool;
+        this.kinds = new int[initialCapacity];
+        this.ids = new int[initialCapacity];
+        this.starts = new int[initialCapacity];
+        this.lengths = new int[initialCapacity];
+        this.size = 0;
+    }
+
+    /**
+     * Tokenizes a whole source buffer
+     * @param source the ASCII Jack source code
+     * @param pool the pool to intern keywords and identifiers into
+     * @return the token table of the source
+     */
+    public static TokenTable tokenize(ByteBuffer source, InternPool pool) {
+        // a rough guess of one token per 8 bytes of source avoids most of the regrowth
+        TokenTable table = new TokenTable(source, pool, Math.max(16, source.limit() / 8));
+        Lexer lexer = new Lexer(source, pool);
+        while (lexer.next()) {
+            table.add(lexer.getTokenKind(), lexer.getTokenId(), lexer.getTokenStart(), lexer.getTokenEnd());
+        }
+        return table;
+    }
+
+    /**
+     * Tokenizes a whole Jack source code file with a pool of its own, the file is memory mapped
+     * @param sourceFile the Jack source code file
+     * @return the token table of the file
+     * @throws IOException IOException
+     */
+    public static TokenTable tokenize(File sourceFile) throws IOException {
+        return tokenize(Lexer.mapFile(sourceFile), new InternPool());
+    }
+
+    /**
+     * Re-tokenizes the source after an edit, lexing only the region affected by it. Lexing restarts at
+     * the last token that starts before the edit, since everything up to that token cannot have changed,
+     * and stops as soon as a new token starts after the edit at the same place an old token started.
+     * Both lexers are between tokens there and see the same text from then on, so the rest of the old
+     * tokens are reused as they are, shifted by the change in length. An edit that opens or closes a
+     * block comment keeps lexing until the token boundaries line up again
+     * @param offset offset of the edit in the current source
+     * @param removedLength number of bytes removed at the offset
+     * @param insertedText the ASCII text inserted at the offset
+     * @return the token table of the edited source, this table is left unchanged
+     */
+    public TokenTable edit(int offset, int removedLength, String insertedText) {
+        byte[] inserted = insertedText.getBytes(StandardCharsets.ISO_8859_1);
+        int oldLength = source.limit();
+        int delta = inserted.length - removedLength;
+        ByteBuffer newSource = ByteBuffer.allocate(oldLength + delta);
+        newSource.put(0, source, 0, offset);
+        newSource.put(offset, inserted);
+        newSource.put(offset + inserted.length, source, offset + removedLength, oldLength - offset - removedLength);
+
+        // tokens before the restart token are not affected by the edit
+        int restart = lastTokenStartingBefore(offset);
+        int restartPosition = restart < 0 ? 0 : starts[restart];
+        int firstAffected = restart < 0 ? 0 : restart;
+        TokenTable table = new TokenTable(newSource, pool, Math.max(16, size + Math.max(16, delta)));
+        System.arraycopy(kinds, 0, table.kinds, 0, firstAffected);
+        System.arraycopy(ids, 0, table.ids, 0, firstAffected);
+        System.arraycopy(starts, 0, table.starts, 0, firstAffected);
+        System.arraycopy(lengths, 0, table.lengths, 0, firstAffected);
+        table.size = firstAffected;
+
+        int editEnd = offset + inserted.length; // in the new source, everything from here on is unchanged
+        int oldIndex = firstAffected; // candidate old token to resynchronize with
+        Lexer lexer = new Lexer(newSource, pool, restartPosition);
+        while (lexer.next()) {
+            int newStart = lexer.getTokenStart();
+            if (newStart >= editEnd) {
+                int oldStart = newStart - delta;
+                while (oldIndex < size && starts[oldIndex] < oldStart) {
+                    oldIndex++;
+                }
+                if (oldIndex < size && starts[oldIndex] == oldStart) { // back in sync with the old tokens
+                    table.appendShifted(this, oldIndex, delta);
+                    return table;
+                }
+            }
+            table.add(lexer.getTokenKind(), lexer.getTokenId(), newStart, lexer.getTokenEnd());
+        }
+        return table;
+    }
+
+    /**
+     * Finds the last token that starts strictly before an offset
+     * @param offset the offset
+     * @return index of the token, or -1 if there is none
+     */
+    private int lastTokenStartingBefore(int offset) {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Appends the tail of another token table, moving the tokens by a number of bytes
+     * @param other the table to copy from
+     * @param from index of the first token to copy
+     * @param delta number of bytes to move the start of each token by
+     */
+    private void appendShifted(TokenTable other, int from, int delta) {
+        int count = other.size - from;
+        int required = size + count;
+        if (required > kinds.length) {
+            kinds = Arrays.copyOf(kinds, required);
+            ids = Arrays.copyOf(ids, required);
+            starts = Arrays.copyOf(starts, required);
+            lengths = Arrays.copyOf(lengths, required);
+        }
+        System.arraycopy(other.kinds, from, kinds, size, count);
+        System.arraycopy(other.ids, from, ids, size, count);
+        System.arraycopy(other.lengths, from, lengths, size, count);
+        for (int i = 0; i < count; i++) {
+            starts[size + i] = other.starts[from + i] + delta;
+        }
+        size = required;
+    }
+
+    /**
+     * Appends the tail of a table whose identifiers were interned into a different pool
+     * @param other the table to copy from
+     * @param from index of the first token to copy
+     * @param idMap maps the identifier IDs of the other table's pool to the IDs of this table's pool
+     */
+    void appendRemapped(TokenTable other, int from, int[] idMap) {
+        int count = other.size - from;
+        int required = size + count;
+        if (required > kinds.length) {
+            int capacity = Math.max(required, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        System.arraycopy(other.kinds, from, kinds, size, count);
+        System.arraycopy(other.starts, from, starts, size, count);
+        System.arraycopy(other.lengths, from, lengths, size, count);
+        for (int i = 0; i < count; i++) {
+            int id = other.ids[from + i];
+            // keywords, symbols and constants have the same ID in every pool
+            ids[size + i] = id < InternPool.NUM_FIXED_IDS ? id : idMap[id];
+        }
+        size = required;
+    }
+
+    /**
+     * Appends a token to the table
+     * @param kind the kind of the token
+     * @param id the interned ID of the token
+     * @param start offset of the first byte of the token
+     * @param end offset one past the last byte of the token
+     */
+    void add(TokenKind kind, int id, int start, int end) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        kinds[size] = kind.ordinal();
+        ids[size] = id;
+        starts[size] = start;
+        lengths[size] = end - start;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public ByteBuffer getSource() {
+        return source;
+    }
+
+    public InternPool getPool() {
+        return pool;
+    }
+
+    public TokenKind kind(int index) {
+        return KINDS[kinds[index]];
+    }
+
+    public int id(int index) {
+        return ids[index];
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * Returns the value of an integer constant token
+     * @param index index of the token
+     * @return the value of the constant
+     */
+    public int intValue(int index) {
+        return Lexer.intValue(source, starts[index], starts[index] + lengths[index]);
+    }
+
+    /**
+     * Materializes the contents of a string constant token, without the quotes
+     * @param index index of the token
+     * @return the contents of the string constant
+     */
+    public String stringValue(int index) {
+        return Lexer.stringValue(source, starts[index], starts[index] + lengths[index]);
+    }
+
+    /**
+     * Materializes the text of a token
+     * @param index index of the token
+     * @return the text of the token
+     */
+    public String text(int index) {
+        if (ids[index] != InternPool.NO_ID) {
+            return pool.name(ids[index]);
+        }
+        return Lexer.text(source, starts[index], starts[index] + lengths[index]);
+    }
+}
@@ -1,88 +1,205 @@
 package main;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
 
 public class Tokenizer {
 
-    // TODO: which class should be responsible for closing the source file?
-    private int currentIndex; // keeps track of where the main.Tokenizer is at in the current line
-    private List<String> tokens;
+    // how many of the most recently lexed tokens are kept, must be a power of two.
+    // The main.Parser never backtracks more than two tokens, plus one token of lookahead from hasNextToken
+    private static final int WINDOW_SIZE = 4;
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private ByteBuffer source; // the ASCII source code, tokens are views into it
+    private InternPool pool; // keywords, symbols and identifiers of the source are interned here
+    private Lexer lexer; // produces tokens lazily, null when iterating over a TokenTable
+    private TokenTable table; // fully lexed tokens, null when streaming from the lexer
+    private long currentIndex; // index of the next token to be returned
+    private long numLexed; // number of tokens lexed so far
+    private long firstIndex; // index of the first token, backtracking stops there
+    // ring buffer of the boundaries of the last WINDOW_SIZE tokens, indexed by token index & WINDOW_MASK
+    private final int[] tokenStarts = new int[WINDOW_SIZE]; // offset of the first byte of each token
+    private final int[] tokenEnds = new int[WINDOW_SIZE]; // offset one past the last byte of each token
+    private final int[] tokenIds = new int[WINDOW_SIZE]; // interned ID of each token
+    private final TokenKind[] tokenKinds = new TokenKind[WINDOW_SIZE]; // kind of each token
+    private final int[] tokenValues = new int[WINDOW_SIZE]; // value of each integer constant token
 
     /**
-     * Tokenizes a Jack source code file and initializes the main.Tokenizer
+     * Initializes a main.Tokenizer over a Jack source code file, with a main.InternPool of its own
      * @param sourceFile the Jack source code file
      * @throws IOException IOException
      */
     public Tokenizer(File sourceFile) throws IOException {
-        this.tokens = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(sourceFile))) {
-            String line;
-            Pattern tokenPattern = Pattern.compile("\".+\"|[\\w_]+|\\d+|[\\{\\}\\(\\)\\[\\]\\.,;\\+\\-*/&|<>=~]");
-            Pattern blockCommentStart = Pattern.compile("/\\*|/\\*\\*");
-            Pattern blockCommentEnd = Pattern.compile("\\*/");
-            Pattern inlineCommentPattern = Pattern.compile("//");
-            int blockCommentStartIndex;
-            int blockCommentEndIndex;
-            int inlineCommentStartIndex;
-            boolean activeBlockComment = false;
-            while ((line = reader.readLine()) != null) {
-                Matcher tokenMatcher = tokenPattern.matcher(line);
-                Matcher inlineCommentMatcher = inlineCommentPattern.matcher(line);
-                if (inlineCommentMatcher.find()) {
-                    inlineCommentStartIndex = inlineCommentMatcher.start();
-                } else {
-                    inlineCommentStartIndex = line.length();
-                }
-                if (activeBlockComment) { // have met the start of a block comment but haven't seen the end
-                    Matcher blockEndMatcher = blockCommentEnd.matcher(line);
-                    if (blockEndMatcher.find()) {
-                        blockCommentEndIndex = blockEndMatcher.end();
-                        activeBlockComment = false;
-                    } else {
-                        blockCommentEndIndex = line.length();
-                    }
-                    while (tokenMatcher.find()) {
-                        if (tokenMatcher.start() >= blockCommentEndIndex && tokenMatcher.start() < inlineCommentStartIndex) {
-                            tokens.add(line.substring(tokenMatcher.start(), tokenMatcher.end()));
-                        }
-                    }
-                } else {
-                    Matcher blockStartMatcher = blockCommentStart.matcher(line);
-                    Matcher blockEndMatcher = blockCommentEnd.matcher(line);
-                    if (blockStartMatcher.find()) {
-                        blockCommentStartIndex = blockStartMatcher.start();
-                        activeBlockComment = true;
-                        if (blockEndMatcher.find()) {
-                            blockCommentEndIndex = blockEndMatcher.end();
-                            activeBlockComment = false;
-                        } else {
-                            blockCommentEndIndex = line.length();
-                        }
-                    } else {
-                        blockCommentStartIndex = line.length();
-                        blockCommentEndIndex = 0;
-                    }
-                    while (tokenMatcher.find()) {
-                        if (tokenMatcher.start() < blockCommentStartIndex && tokenMatcher.start() < inlineCommentStartIndex
-                        && tokenMatcher.start() >= blockCommentEndIndex) {
-                            tokens.add(line.substring(tokenMatcher.start(), tokenMatcher.end()));
-                        }
-                    }
-                }
-            }
-        }
+        this(sourceFile, new InternPool());
+    }
+
+    /**
+     * Initializes a main.Tokenizer over a Jack source code file. The file is memory mapped and lexed
+     * directly as bytes, since Jack source code is ASCII. Tokens are lexed lazily as they are requested,
+     * so memory use does not grow with the size of the file
+     * @param sourceFile the Jack source code file
+     * @param pool the pool of the compilation to intern keywords and identifiers into
+     * @throws IOException IOException
+     */
+    public Tokenizer(File sourceFile, InternPool pool) throws IOException {
+        this(Lexer.mapFile(sourceFile), pool);
+    }
+
+    /**
+     * Initializes a main.Tokenizer over Jack source code that is already in memory
+     * @param source the ASCII Jack source code
+     * @param pool the pool of the compilation to intern keywords and identifiers into
+     */
+    public Tokenizer(ByteBuffer source, InternPool pool) {
+        this.source = source;
+        this.pool = pool;
+        this.lexer = new Lexer(this.source, pool);
         this.currentIndex = 0;
+        this.numLexed = 0;
+    }
+
+    /**
+     * Initializes a main.Tokenizer over an already lexed token table, backtracking is not limited
+     * @param table the token table to iterate over
+     */
+    public Tokenizer(TokenTable table) {
+        this(table, 0, table.size());
+    }
+
+    /**
+     * Initializes a main.Tokenizer over a range of an already lexed token table, e.g. one subroutine
+     * @param table the token table to iterate over
+     * @param from index of the first token
+     * @param to index one past the last token
+     */
+    public Tokenizer(TokenTable table, int from, int to) {
+        this.source = table.getSource();
+        this.pool = table.getPool();
+        this.table = table;
+        this.firstIndex = from;
+        this.currentIndex = from;
+        this.numLexed = to;
+    }
+
+    /**
+     * Lexes one more token into the lookahead window
+     * @return true if a token was found, false if the end of the source was reached
+     */
+    private boolean lexNextToken() {
+        if (lexer == null || !lexer.next()) {
+            return false;
+        }
+        int slot = (int) (numLexed & WINDOW_MASK);
+        tokenStarts[slot] = lexer.getTokenStart();
+        tokenEnds[slot] = lexer.getTokenEnd();
+        tokenIds[slot] = lexer.getTokenId();
+        tokenKinds[slot] = lexer.getTokenKind();
+        tokenValues[slot] = lexer.getIntValue();
+        numLexed++;
+        return true;
+    }
+
+    /**
+     * Materializes the text of a token that is still available
+     * @param index index of the token
+     * @return the text of the token
+     */
+    private String tokenText(long index) {
+        if (table != null) {
+            return table.text((int) index);
+        }
+        int slot = (int) (index & WINDOW_MASK);
+        if (tokenIds[slot] != InternPool.NO_ID) {
+            return pool.name(tokenIds[slot]);
+        }
+        return Lexer.text(source, tokenStarts[slot], tokenEnds[slot]);
+    }
+
+    /**
+     * Returns the interned ID of a token that is still available
+     * @param index index of the token
+     * @return the ID of the token, NO_ID for integer and string constants
+     */
+    private int tokenId(long index) {
+        if (table != null) {
+            return table.id((int) index);
+        }
+        return tokenIds[(int) (index & WINDOW_MASK)];
+    }
+
+    /**
+     * Returns the kind of the token most recently returned by getNextToken or getNextTokenId
+     * @return the kind of the current token
+     */
+    public TokenKind getCurrentKind() {
+        long index = this.currentIndex - 1;
+        if (table != null) {
+            return table.kind((int) index);
+        }
+        return tokenKinds[(int) (index & WINDOW_MASK)];
+    }
+
+    /**
+     * Returns the value of the current token, which must be an integer constant
+     * @return the value of the integer constant
+     */
+    public int getCurrentIntValue() {
+        long index = this.currentIndex - 1;
+        if (table != null) {
+            return table.intValue((int) index);
+        }
+        return tokenValues[(int) (index & WINDOW_MASK)];
+    }
+
+    /**
+     * Returns the contents of the current token without the quotes, which must be a string constant
+     * @return the contents of the string constant
+     */
+    public String getCurrentStringValue() {
+        long index = this.currentIndex - 1;
+        if (table != null) {
+            return table.stringValue((int) index);
+        }
+        int slot = (int) (index & WINDOW_MASK);
+        return Lexer.stringValue(source, tokenStarts[slot], tokenEnds[slot]);
+    }
+
+    /**
+     * Returns the offset of the first byte of the current token in the source
+     * @return the start offset of the current token
+     */
+    public int getCurrentTokenStart() {
+        long index = this.currentIndex - 1;
+        if (table != null) {
+            return table.start((int) index);
+        }
+        return tokenStarts[(int) (index & WINDOW_MASK)];
+    }
+
+    /**
+     * Returns the offset one past the last byte of the current token in the source
+     * @return the end offset of the current token
+     */
+    public int getCurrentTokenEnd() {
+        long index = this.currentIndex - 1;
+        if (table != null) {
+            return table.start((int) index) + table.length((int) index);
+        }
+        return tokenEnds[(int) (index & WINDOW_MASK)];
+    }
+
+    public ByteBuffer getSource() {
+        return source;
+    }
+
+    public InternPool getPool() {
+        return pool;
     }
 
     public boolean hasNextToken() {
-        return !(this.currentIndex == this.tokens.size());
+        return this.currentIndex < this.numLexed || lexNextToken();
     }
 
     /**
@@ -90,15 +207,50 @@ public class Tokenizer {
      * @return the next token
      */
     public String getNextToken() {
-        String currentToken = this.tokens.get(this.currentIndex);
+        if (!hasNextToken()) {
+            throw new NoSuchElementException("No more tokens in the source");
+        }
+        String currentToken = tokenText(this.currentIndex);
         currentIndex++;
         return currentToken;
     }
 
+    /**
+     * Returns the interned ID of the next token, without materializing its text
+     * @return the ID of the next token, NO_ID for integer and string constants
+     */
+    public int getNextTokenId() {
+        if (!hasNextToken()) {
+            throw new NoSuchElementException("No more tokens in the source");
+        }
+        int currentId = tokenId(this.currentIndex);
+        currentIndex++;
+        return currentId;
+    }
+
+    /**
+     * Returns the token most recently returned by getNextToken or getNextTokenId
+     * @return the current token
+     */
+    public String getCurrentToken() {
+        return tokenText(this.currentIndex - 1);
+    }
+
+    /**
+     * Returns the index of the next token, within the token table for a main.Tokenizer over one
+     * @return the number of tokens read so far, counted from the start of the table
+     */
+    int getNextIndex() {
+        return (int) currentIndex;
+    }
+
     /**
      * Backtracks the token iteration, needed where Jack is an LL(2) language
      */
     public void backTrack() {
+        if ((table == null && numLexed - currentIndex >= WINDOW_SIZE) || currentIndex == firstIndex) {
+            throw new IllegalStateException("Cannot backtrack past the lookahead window");
+        }
         currentIndex--;
     }
 }
@@ -0,0 +1,393 @@
+package main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes VM instructions as ASCII bytes into a reusable buffer. Opcodes and memory segments are copied
+ * from precomputed byte arrays and numbers are converted digit by digit, so emitting an instruction
+ * allocates nothing. The buffer is drained into an output stream whenever it is full, into an Appendable
+ * after every instruction so that the Appendable is always up to date, or kept in memory and read back
+ * as a CharSequence
+ */
+public class VmEmitter implements VmWriter, CharSequence {
+
+    private static final int STREAM_CAPACITY = 8192;
+    private static final int INITIAL_CAPACITY = 256; // in memory, grows as needed
+    private static final int MAX_INT_LENGTH = 11; // -2147483648
+
+    // "push segment " and "pop segment ", indexed by the ordinal of the segment
+    private static final byte[][] PUSH_SEGMENTS = new byte[MemorySegment.values().length][];
+    private static final byte[][] POP_SEGMENTS = new byte[MemorySegment.values().length][];
+    // arithmetic and logical commands with their line breaks, indexed by opcode
+    private static final byte[][] ARITHMETIC_COMMANDS = new byte[VmProgram.NOT + 1][];
+    private static final byte[] LABEL = ascii("label ");
+    private static final byte[] GOTO = ascii("goto ");
+    private static final byte[] IF_GOTO = ascii("if-goto ");
+    private static final byte[] CALL = ascii("call ");
+    private static final byte[] FUNCTION = ascii("function ");
+    private static final byte[] RETURN = ascii("return\n");
+
+    static {
+        for (MemorySegment segment : MemorySegment.values()) {
+            PUSH_SEGMENTS[segment.ordinal()] = ascii("push " + segment.name().toLowerCase() + " ");
+            POP_SEGMENTS[segment.ordinal()] = ascii("pop " + segment.name().toLowerCase() + " ");
+        }
+        for (int opcode = VmProgram.ADD; opcode <= VmProgram.NOT; opcode++) {
+            ARITHMETIC_COMMANDS[opcode] = ascii(VmProgram.OPCODE_NAMES[opcode] + "\n");
+        }
+    }
+
+    private byte[] buffer;
+    private int count = 0; // number of bytes in the buffer
+    private final OutputStream stream; // drained into when the buffer is full, may be null
+    private final Appendable appendable; // drained into after every instruction, may be null
+
+    /**
+     * Initializes a VmEmitter that keeps all VM code in memory
+     */
+    public VmEmitter() {
+        this(INITIAL_CAPACITY, null, null);
+    }
+
+    /**
+     * Initializes a VmEmitter that writes VM code into a stream, a buffer's worth at a time. Call flush
+     * once done
+     * @param stream the stream to write VM code to, e.g. the output file
+     */
+    public VmEmitter(OutputStream stream) {
+        this(STREAM_CAPACITY, stream, null);
+    }
+
+    /**
+     * Initializes a VmEmitter that appends each VM instruction to a sink as soon as it is emitted
+     * @param appendable the sink to append VM code to
+     */
+    public VmEmitter(Appendable appendable) {
+        this(64, null, appendable);
+    }
+
+    private VmEmitter(int capacity, OutputStream stream, Appendable appendable) {
+        this.buffer = new byte[capacity];
+        this.stream = stream;
+        this.appendable = appendable;
+    }
+
+    /**
+     * Emits a VM push instruction
+     * @param segment the memory segment to push from
+     * @param index the index of the memory segment to push from
+     */
+    @Override
+    public void emitPush(MemorySegment segment, int index) {
+        emit(PUSH_SEGMENTS[segment.ordinal()], index);
+    }
+
+    /**
+     * Emits a VM pop instruction
+     * @param segment the memory segment to pop to
+     * @param index the index of the memory segment to pop to
+     */
+    @Override
+    public void emitPop(MemorySegment segment, int index) {
+        emit(POP_SEGMENTS[segment.ordinal()], index);
+    }
+
+    @Override
+    public void emitArithmetic(int opcode) {
+        emit(ARITHMETIC_COMMANDS[opcode]);
+    }
+
+    /**
+     * Emits a label
+     * @param label the label
+     */
+    @Override
+    public void emitLabel(String label) {
+        emit(LABEL, label);
+    }
+
+    /**
+     * Emits a label numbered within its function, e.g. Main.main$WHILE_0
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    @Override
+    public void emitLabel(String prefix, String kind, int number) {
+        emitNumberedLabel(LABEL, prefix, kind, number);
+    }
+
+    /**
+     * Emits a goto command
+     * @param label the label to goto
+     */
+    @Override
+    public void emitGOTO(String label) {
+        emit(GOTO, label);
+    }
+
+    /**
+     * Emits a goto command to a label numbered within its function
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    @Override
+    public void emitGOTO(String prefix, String kind, int number) {
+        emitNumberedLabel(GOTO, prefix, kind, number);
+    }
+
+    /**
+     * Emits an if-goto command
+     * @param label the label to goto
+     */
+    @Override
+    public void emitIfGOTO(String label) {
+        emit(IF_GOTO, label);
+    }
+
+    /**
+     * Emits an if-goto command to a label numbered within its function
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    @Override
+    public void emitIfGOTO(String prefix, String kind, int number) {
+        emitNumberedLabel(IF_GOTO, prefix, kind, number);
+    }
+
+    /**
+     * Emits a function call
+     * @param className name of the class of the function
+     * @param funcName name of the function within the class
+     * @param numArgs number of arguments the function takes
+     */
+    @Override
+    public void emitFuncCall(String className, String funcName, int numArgs) {
+        emitQualified(CALL, className, funcName, numArgs);
+    }
+
+    /**
+     * Emits a function call
+     * @param funcName full name of the function, e.g. Math.multiply
+     * @param numArgs number of arguments the function takes
+     */
+    @Override
+    public void emitFuncCall(String funcName, int numArgs) {
+        emit(CALL, funcName, numArgs);
+    }
+
+    /**
+     * Emits a function definition
+     * @param className name of the class of the function
+     * @param funcName name of the function within the class
+     * @param numLocals number of local variables the function has
+     */
+    @Override
+    public void emitFunction(String className, String funcName, int numLocals) {
+        emitQualified(FUNCTION, className, funcName, numLocals);
+    }
+
+    /**
+     * Emits a function definition
+     * @param funcName full name of the function
+     * @param numLocals number of local variables the function has
+     */
+    @Override
+    public void emitFunction(String funcName, int numLocals) {
+        emit(FUNCTION, funcName, numLocals);
+    }
+
+    /**
+     * Emits a return command
+     */
+    @Override
+    public void emitReturn() {
+        emit(RETURN);
+    }
+
+    /**
+     * Writes the VM code still in the buffer into the stream of the emitter, if it has one
+     * @throws UncheckedIOException if writing to the stream fails
+     */
+    public void flush() {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.write(buffer, 0, count);
+            stream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    /**
+     * Discards the VM code in the buffer, keeping the buffer itself
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    @Override
+    public int length() {
+        return count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return (char) (buffer[index] & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the VM code in the buffer, i.e. all VM code emitted if the emitter keeps it in memory
+     * @return the VM code in the buffer
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, StandardCharsets.ISO_8859_1);
+    }
+
+    private void emit(byte[] line) {
+        ensureCapacity(line.length);
+        putBytes(line);
+        endInstruction();
+    }
+
+    private void emit(byte[] command, String operand) {
+        ensureCapacity(command.length + operand.length() + 1);
+        putBytes(command);
+        putAscii(operand);
+        buffer[count++] = '\n';
+        endInstruction();
+    }
+
+    private void emit(byte[] command, int number) {
+        ensureCapacity(command.length + MAX_INT_LENGTH + 1);
+        putBytes(command);
+        putInt(number);
+        buffer[count++] = '\n';
+        endInstruction();
+    }
+
+    private void emit(byte[] command, String name, int number) {
+        ensureCapacity(command.length + name.length() + MAX_INT_LENGTH + 2);
+        putBytes(command);
+        putAscii(name);
+        buffer[count++] = ' ';
+        putInt(number);
+        buffer[count++] = '\n';
+        endInstruction();
+    }
+
+    private void emitNumberedLabel(byte[] command, String prefix, String kind, int number) {
+        ensureCapacity(command.length + prefix.length() + kind.length() + MAX_INT_LENGTH + 1);
+        putBytes(command);
+        putAscii(prefix);
+        putAscii(kind);
+        putInt(number);
+        buffer[count++] = '\n';
+        endInstruction();
+    }
+
+    private void emitQualified(byte[] command, String className, String funcName, int number) {
+        ensureCapacity(command.length + className.length() + funcName.length() + MAX_INT_LENGTH + 3);
+        putBytes(command);
+        putAscii(className);
+        buffer[count++] = '.';
+        putAscii(funcName);
+        buffer[count++] = ' ';
+        putInt(number);
+        buffer[count++] = '\n';
+        endInstruction();
+    }
+
+    private void putBytes(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    // the deprecated getBytes copies the low byte of each char without encoding or allocating, right for ASCII
+    @SuppressWarnings("deprecation")
+    private void putAscii(String string) {
+        string.getBytes(0, string.length(), buffer, count);
+        count += string.length();
+    }
+
+    /**
+     * Writes the decimal digits of a number, from the last digit backwards
+     * @param number the number
+     */
+    private void putInt(int number) {
+        if (number == Integer.MIN_VALUE) { // has no positive counterpart
+            putAscii("-2147483648");
+            return;
+        }
+        if (number < 0) {
+            buffer[count++] = '-';
+            number = -number;
+        }
+        int numDigits = 1;
+        for (int rest = number / 10; rest != 0; rest /= 10) {
+            numDigits++;
+        }
+        count += numDigits;
+        int position = count;
+        do {
+            buffer[--position] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number != 0);
+    }
+
+    /**
+     * Makes room for an instruction of at most a number of bytes, by draining the buffer into the stream
+     * or by growing it
+     * @param length the maximum length of the instruction
+     */
+    private void ensureCapacity(int length) {
+        if (count + length <= buffer.length) {
+            return;
+        }
+        if (stream != null) {
+            try {
+                stream.write(buffer, 0, count);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count = 0;
+        }
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
+    }
+
+    private void endInstruction() {
+        if (appendable == null) {
+            return;
+        }
+        try {
+            appendable.append(this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
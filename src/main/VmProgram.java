@@ -0,0 +1,372 @@
+package main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VM instructions encoded as ints, the in-memory form of VM code passed between compiler stages. Each
+ * instruction takes two ints of one packed array: the opcode in the low 8 bits of the first with its
+ * operand above it, either the ordinal of a memory segment (push/pop) or the ID of a name (label, goto,
+ * if-goto, function, call), and its number in the second (the index of push/pop, the number of locals of
+ * function, the number of arguments of call). Labels and function names are interned in a table of
+ * their own. The text serializer replays the instructions through a main.VmEmitter, which writes exactly
+ * what main.CodeGenerator writes. The binary .vmb format stores the name table and the packed array as
+ * they are, so loading it involves no text parsing:
+ *
+ *   int magic "VMB1", int numNames, numNames * name, int numInstructions, 2 * numInstructions * int
+ *
+ * with the ints big-endian and the names in the format of java.io.DataOutputStream.writeUTF
+ */
+public class VmProgram implements VmWriter {
+
+    // opcodes, ADD to NOT are the arithmetic and logical commands
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int NEG = 4;
+    public static final int EQ = 5;
+    public static final int GT = 6;
+    public static final int LT = 7;
+    public static final int AND = 8;
+    public static final int OR = 9;
+    public static final int NOT = 10;
+    public static final int LABEL = 11;
+    public static final int GOTO = 12;
+    public static final int IF_GOTO = 13;
+    public static final int FUNCTION = 14;
+    public static final int CALL = 15;
+    public static final int RETURN = 16;
+
+    // the VM commands of the opcodes, indexed by opcode
+    public static final String[] OPCODE_NAMES = {"push", "pop", "add", "sub", "neg", "eq", "gt", "lt", "and",
+            "or", "not", "label", "goto", "if-goto", "function", "call", "return"};
+
+    private static final int MAGIC = 0x564D4231; // VMB1
+    private static final int OPCODE_BITS = 8;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+    private static final int MAX_NAMES = 1 << (Integer.SIZE - OPCODE_BITS);
+    private static final MemorySegment[] SEGMENTS = MemorySegment.values();
+
+    private int[] code = new int[256]; // two ints per instruction
+    private int size = 0; // number of instructions
+    private final List<String> names = new ArrayList<>(); // labels and function names, indexed by ID
+    private final Map<String, Integer> nameIds = new HashMap<>();
+
+    /**
+     * Returns the number of instructions
+     * @return the number of instructions
+     */
+    public int size() {
+        return size;
+    }
+
+    public int opcode(int instruction) {
+        return code[2 * instruction] & OPCODE_MASK;
+    }
+
+    /**
+     * Returns the memory segment of a push or pop instruction
+     * @param instruction index of the instruction
+     * @return the memory segment
+     */
+    public MemorySegment segment(int instruction) {
+        return SEGMENTS[code[2 * instruction] >>> OPCODE_BITS];
+    }
+
+    /**
+     * Returns the ID of the name of a label, goto, if-goto, function or call instruction
+     * @param instruction index of the instruction
+     * @return the ID of the name
+     */
+    public int nameId(int instruction) {
+        return code[2 * instruction] >>> OPCODE_BITS;
+    }
+
+    /**
+     * Returns the name of a label, goto, if-goto, function or call instruction
+     * @param instruction index of the instruction
+     * @return the label or the full name of the function
+     */
+    public String name(int instruction) {
+        return names.get(nameId(instruction));
+    }
+
+    /**
+     * Returns the number of an instruction: the index of push and pop, the number of locals of function,
+     * the number of arguments of call
+     * @param instruction index of the instruction
+     * @return the number
+     */
+    public int number(int instruction) {
+        return code[2 * instruction + 1];
+    }
+
+    /**
+     * Returns the name with an ID
+     * @param nameId the ID
+     * @return the label or the full name of a function
+     */
+    public String nameOf(int nameId) {
+        return names.get(nameId);
+    }
+
+    @Override
+    public void emitPush(MemorySegment segment, int index) {
+        add(PUSH, segment.ordinal(), index);
+    }
+
+    @Override
+    public void emitPop(MemorySegment segment, int index) {
+        add(POP, segment.ordinal(), index);
+    }
+
+    @Override
+    public void emitArithmetic(int opcode) {
+        add(opcode, 0, 0);
+    }
+
+    @Override
+    public void emitLabel(String label) {
+        add(LABEL, intern(label), 0);
+    }
+
+    @Override
+    public void emitLabel(String prefix, String kind, int number) {
+        emitLabel(prefix + kind + number);
+    }
+
+    @Override
+    public void emitGOTO(String label) {
+        add(GOTO, intern(label), 0);
+    }
+
+    @Override
+    public void emitGOTO(String prefix, String kind, int number) {
+        emitGOTO(prefix + kind + number);
+    }
+
+    @Override
+    public void emitIfGOTO(String label) {
+        add(IF_GOTO, intern(label), 0);
+    }
+
+    @Override
+    public void emitIfGOTO(String prefix, String kind, int number) {
+        emitIfGOTO(prefix + kind + number);
+    }
+
+    @Override
+    public void emitFunction(String funcName, int numLocals) {
+        add(FUNCTION, intern(funcName), numLocals);
+    }
+
+    @Override
+    public void emitFunction(String className, String funcName, int numLocals) {
+        emitFunction(className + "." + funcName, numLocals);
+    }
+
+    @Override
+    public void emitFuncCall(String funcName, int numArgs) {
+        add(CALL, intern(funcName), numArgs);
+    }
+
+    @Override
+    public void emitFuncCall(String className, String funcName, int numArgs) {
+        emitFuncCall(className + "." + funcName, numArgs);
+    }
+
+    @Override
+    public void emitReturn() {
+        add(RETURN, 0, 0);
+    }
+
+    /**
+     * Writes instructions of the program into a writer, e.g. a main.VmEmitter to turn them into text or
+     * another VmProgram
+     * @param out where to write the instructions to
+     * @param from index of the first instruction
+     * @param to index one past the last instruction
+     */
+    public void replay(VmWriter out, int from, int to) {
+        for (int instruction = from; instruction < to; instruction++) {
+            int opcode = opcode(instruction);
+            switch (opcode) {
+                case PUSH:
+                    out.emitPush(segment(instruction), number(instruction));
+                    break;
+                case POP:
+                    out.emitPop(segment(instruction), number(instruction));
+                    break;
+                case LABEL:
+                    out.emitLabel(name(instruction));
+                    break;
+                case GOTO:
+                    out.emitGOTO(name(instruction));
+                    break;
+                case IF_GOTO:
+                    out.emitIfGOTO(name(instruction));
+                    break;
+                case FUNCTION:
+                    out.emitFunction(name(instruction), number(instruction));
+                    break;
+                case CALL:
+                    out.emitFuncCall(name(instruction), number(instruction));
+                    break;
+                case RETURN:
+                    out.emitReturn();
+                    break;
+                default:
+                    out.emitArithmetic(opcode);
+            }
+        }
+    }
+
+    /**
+     * Writes the whole program into a writer
+     * @param out where to write the instructions to
+     */
+    public void replay(VmWriter out) {
+        replay(out, 0, size);
+    }
+
+    /**
+     * Serializes the program as the text of a .vm file
+     * @return the VM code
+     */
+    @Override
+    public String toString() {
+        VmEmitter emitter = new VmEmitter();
+        replay(emitter);
+        return emitter.toString();
+    }
+
+    /**
+     * Writes the program in the binary .vmb format
+     * @param out the stream to write to, it is not closed
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(names.size());
+        for (String name : names) {
+            data.writeUTF(name);
+        }
+        data.writeInt(size);
+        ByteBuffer instructions = ByteBuffer.allocate(2 * size * Integer.BYTES);
+        instructions.asIntBuffer().put(code, 0, 2 * size);
+        data.write(instructions.array());
+        data.flush();
+    }
+
+    /**
+     * Loads a program written in the binary .vmb format
+     * @param in the stream to read from, it is not closed
+     * @return the program
+     * @throws IOException if reading fails or the stream does not hold a valid program
+     */
+    public static VmProgram readBinary(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a .vmb file");
+        }
+        VmProgram program = new VmProgram();
+        int numNames = data.readInt();
+        if (numNames < 0 || numNames > MAX_NAMES) {
+            throw new IOException("Invalid .vmb file: " + numNames + " names");
+        }
+        for (int i = 0; i < numNames; i++) {
+            program.intern(data.readUTF());
+        }
+        int size = data.readInt();
+        if (size < 0 || size > (Integer.MAX_VALUE - 8) / (2 * Integer.BYTES)) {
+            throw new IOException("Invalid .vmb file: " + size + " instructions");
+        }
+        byte[] instructions = new byte[2 * size * Integer.BYTES];
+        data.readFully(instructions);
+        program.code = new int[Math.max(2 * size, 2)];
+        ByteBuffer.wrap(instructions).asIntBuffer().get(program.code, 0, 2 * size);
+        program.size = size;
+        for (int instruction = 0; instruction < size; instruction++) {
+            if (!program.isValid(instruction)) {
+                throw new IOException("Invalid .vmb file: instruction " + instruction);
+            }
+        }
+        return program;
+    }
+
+    int numNames() {
+        return names.size();
+    }
+
+    /**
+     * Removes the instructions from an index on
+     * @param size the number of instructions to keep
+     */
+    void truncate(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Removes one instruction, moving the ones after it forward
+     * @param instruction index of the instruction
+     */
+    void remove(int instruction) {
+        System.arraycopy(code, 2 * (instruction + 1), code, 2 * instruction, 2 * (size - instruction - 1));
+        size--;
+    }
+
+    /**
+     * Removes all instructions and names, keeping the allocated arrays
+     */
+    void clear() {
+        size = 0;
+        names.clear();
+        nameIds.clear();
+    }
+
+    private boolean isValid(int instruction) {
+        int opcode = opcode(instruction);
+        int operand = code[2 * instruction] >>> OPCODE_BITS;
+        switch (opcode) {
+            case PUSH: case POP:
+                return operand < SEGMENTS.length;
+            case LABEL: case GOTO: case IF_GOTO: case FUNCTION: case CALL:
+                return operand < names.size();
+            default:
+                return opcode <= RETURN && operand == 0;
+        }
+    }
+
+    private int intern(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            if (names.size() == MAX_NAMES) {
+                throw new IllegalStateException("Too many labels and functions for a VmProgram");
+            }
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private void add(int opcode, int operand, int number) {
+        if (2 * size == code.length) {
+            code = Arrays.copyOf(code, 2 * code.length);
+        }
+        code[2 * size] = opcode | operand << OPCODE_BITS;
+        code[2 * size + 1] = number;
+        size++;
+    }
+}
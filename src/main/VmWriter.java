@@ -0,0 +1,47 @@
+package main;
+
+/**
+ * Receives VM instructions one at a time, either to write them as text (main.VmEmitter) or to keep them
+ * as int-encoded instructions (main.VmProgram). Arithmetic and logical commands are given by their
+ * opcodes in main.VmProgram
+ */
+public interface VmWriter {
+
+    void emitPush(MemorySegment segment, int index);
+
+    void emitPop(MemorySegment segment, int index);
+
+    /**
+     * Emits an arithmetic or logical command, e.g. add or not
+     * @param opcode one of VmProgram.ADD to VmProgram.NOT
+     */
+    void emitArithmetic(int opcode);
+
+    void emitLabel(String label);
+
+    /**
+     * Emits a label numbered within its function, e.g. Main.main$WHILE_0
+     * @param prefix name of the function followed by $
+     * @param kind kind of the label
+     * @param number number of the label among the labels of its kind
+     */
+    void emitLabel(String prefix, String kind, int number);
+
+    void emitGOTO(String label);
+
+    void emitGOTO(String prefix, String kind, int number);
+
+    void emitIfGOTO(String label);
+
+    void emitIfGOTO(String prefix, String kind, int number);
+
+    void emitFunction(String funcName, int numLocals);
+
+    void emitFunction(String className, String funcName, int numLocals);
+
+    void emitFuncCall(String funcName, int numArgs);
+
+    void emitFuncCall(String className, String funcName, int numArgs);
+
+    void emitReturn();
+}
@@ -1,5 +1,6 @@
 package symboltable;
 
+import main.InternPool;
 import symbol.Symbol;
 import symbol.SymbolKind;
 
@@ -8,15 +9,23 @@ public class ClassSymbolTable extends SymbolTable {
     private int staticVarCount = 0;
     private int fieldVarCount = 0;
 
+    public ClassSymbolTable() {
+        super();
+    }
+
+    public ClassSymbolTable(InternPool pool) {
+        super(pool);
+    }
+
     @Override
-    public void define(String varName, String varType, SymbolKind varKind) {
+    public void define(int nameId, String varType, SymbolKind varKind) {
         switch (varKind) {
             case STATIC:
-                this.table.put(varName, new Symbol(varType, varKind, varName, staticVarCount));
+                put(nameId, new Symbol(varType, varKind, pool.name(nameId), staticVarCount));
                 this.staticVarCount++;
                 break;
             case FIELD:
-                this.table.put(varName, new Symbol(varType, varKind, varName, fieldVarCount));
+                put(nameId, new Symbol(varType, varKind, pool.name(nameId), fieldVarCount));
                 this.fieldVarCount++;
                 break;
         }
@@ -1,5 +1,6 @@
 package symboltable;
 
+import main.InternPool;
 import symbol.Symbol;
 import symbol.SymbolKind;
 
@@ -8,15 +9,30 @@ public class SubroutineSymbolTable extends SymbolTable {
     private int localVarCount = 0;
     private int argumentCount = 0;
 
+    public SubroutineSymbolTable() {
+        super();
+    }
+
+    public SubroutineSymbolTable(InternPool pool) {
+        super(pool);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        this.localVarCount = 0;
+        this.argumentCount = 0;
+    }
+
     @Override
-    public void define(String varName, String varType, SymbolKind varKind) {
+    public void define(int nameId, String varType, SymbolKind varKind) {
         switch (varKind) {
             case LOCAL:
-                this.table.put(varName, new Symbol(varType, varKind, varName, localVarCount));
+                put(nameId, new Symbol(varType, varKind, pool.name(nameId), localVarCount));
                 this.localVarCount++;
                 break;
             case ARGUMENT:
-                this.table.put(varName, new Symbol(varType, varKind, varName, argumentCount));
+                put(nameId, new Symbol(varType, varKind, pool.name(nameId), argumentCount));
                 this.argumentCount++;
                 break;
         }
@@ -1,26 +1,37 @@
 package symboltable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Optional;
 
-import main.MemorySegment;
+import main.InternPool;
 import symbol.Symbol;
 import symbol.SymbolKind;
 
 public abstract class SymbolTable {
 
-    Map<String, Symbol> table;
+    InternPool pool; // the pool the names of the symbols are interned in
+    Symbol[] table; // symbols indexed by the interned ID of their name
 
     public SymbolTable() {
-        this.table = new HashMap<>();
+        this(new InternPool());
+    }
+
+    /**
+     * Initializes a symbol table that shares the main.InternPool of a compilation, so symbols can be
+     * looked up by the IDs the main.Tokenizer hands out. The table grows up to the highest ID defined
+     * instead of starting at the size of the pool, which may hold every name of a huge class up front
+     * @param pool the pool of the compilation
+     */
+    public SymbolTable(InternPool pool) {
+        this.pool = pool;
+        this.table = new Symbol[64];
     }
 
     /**
      * Resets the symbol table, use when starting compile a new subroutine
      */
     public void reset() {
-        this.table = new HashMap<>();
+        Arrays.fill(this.table, null);
     }
 
     /**
@@ -29,7 +40,29 @@ public abstract class SymbolTable {
      * @param varType the type of the symbol
      * @param varKind what kind of symbol is it? (argument, local, etc)
      */
-    public abstract void define(String varName, String varType, SymbolKind varKind);
+    public void define(String varName, String varType, SymbolKind varKind) {
+        define(pool.intern(varName), varType, varKind);
+    }
+
+    /**
+     * Adds a new symbol to the symbol table
+     * @param nameId interned ID of the name of the symbol
+     * @param varType the type of the symbol
+     * @param varKind what kind of symbol is it? (argument, local, etc)
+     */
+    public abstract void define(int nameId, String varType, SymbolKind varKind);
+
+    /**
+     * Stores a symbol under the ID of its name, growing the table if needed
+     * @param nameId interned ID of the name of the symbol
+     * @param symbol the symbol
+     */
+    void put(int nameId, Symbol symbol) {
+        if (nameId >= this.table.length) {
+            this.table = Arrays.copyOf(this.table, Math.max(nameId + 1, this.table.length * 2));
+        }
+        this.table[nameId] = symbol;
+    }
 
     /**
      * Looks up a symbol
@@ -37,10 +70,19 @@ public abstract class SymbolTable {
      * @return an Optional object, since the symbol may or may not exist
      */
     public Optional<Symbol> lookUp(String varName) {
-        if (this.table.containsKey(varName)) {
-            return Optional.of(this.table.get(varName));
+        return Optional.ofNullable(get(pool.lookUp(varName)));
+    }
+
+    /**
+     * Looks up a symbol by the interned ID of its name
+     * @param nameId interned ID of the name of the symbol
+     * @return the symbol, or null if it does not exist
+     */
+    public Symbol get(int nameId) {
+        if (nameId < 0 || nameId >= this.table.length) {
+            return null;
         }
-        return Optional.empty();
+        return this.table[nameId];
     }
 
     /**
@@ -49,6 +91,15 @@ public abstract class SymbolTable {
      * @return true if the symbol is present, false if otherwise
      */
     public boolean hasSymbol(String varName) {
-        return this.table.containsKey(varName);
+        return get(pool.lookUp(varName)) != null;
+    }
+
+    /**
+     * Checks if the symbol table contains a symbol
+     * @param nameId interned ID of the name of the symbol to check
+     * @return true if the symbol is present, false if otherwise
+     */
+    public boolean hasSymbol(int nameId) {
+        return get(nameId) != null;
     }
 }
@@ -1,11 +1,19 @@
 package test;
 
 import main.CodeGenerator;
+import main.MemorySegment;
+import main.VmEmitter;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
 public class CodeGeneratorTest {
 
     CodeGenerator generator;
@@ -28,4 +36,79 @@ public class CodeGeneratorTest {
                 "call String.appendChar 2\n";
         assertEquals(expected, generator.generateStringLiteral(str));
     }
+
+    @Test
+    void testGenerateInstructions() {
+        generator = new CodeGenerator();
+        assertEquals("push constant 0\n", generator.generatePush(MemorySegment.CONSTANT, 0));
+        assertEquals("push that 32767\n", generator.generatePush(MemorySegment.THAT, 32767));
+        assertEquals("pop temp 10\n", generator.generatePop(MemorySegment.TEMP, 10));
+        assertEquals("push local -1\n", generator.generatePush(MemorySegment.LOCAL, -1));
+        assertEquals("push static -2147483648\n", generator.generatePush(MemorySegment.STATIC, Integer.MIN_VALUE));
+        assertEquals("pop pointer 2147483647\n", generator.generatePop(MemorySegment.POINTER, Integer.MAX_VALUE));
+        assertEquals("call Math.multiply 2\n", generator.generateArithLogical("*"));
+        assertEquals("lt\n", generator.generateArithLogical("<"));
+        assertEquals("not\n", generator.generateUnaryOp("~"));
+        assertEquals("label Main.main$WHILE_0\n", generator.generateLabel("Main.main$WHILE_0"));
+        assertEquals("goto END\n", generator.generateGOTO("END"));
+        assertEquals("if-goto END\n", generator.generateIfGOTO("END"));
+        assertEquals("call Output.printInt 1\n", generator.generateFuncCall("Output.printInt", 1));
+        assertEquals("function Main.main 12\n", generator.generateFunction("Main.main", 12));
+        assertEquals("push constant 1\nneg\n", generator.generateKeywordConstant("true"));
+        assertEquals("return\n", generator.generateReturn());
+    }
+
+    @Test
+    void testWriteIntoStream() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        VmEmitter emitter = new VmEmitter(stream);
+        CodeGenerator streamGenerator = new CodeGenerator(emitter);
+        StringBuilder sink = new StringBuilder();
+        CodeGenerator sinkGenerator = new CodeGenerator(sink);
+        for (CodeGenerator codeGenerator : new CodeGenerator[]{streamGenerator, sinkGenerator}) {
+            // enough code to drain the buffer of the emitter a few times
+            for (int i = 0; i < 10000; i++) {
+                codeGenerator.writeFunction("Main", "f" + i, i % 3);
+                codeGenerator.writeLabel("Main.f" + i + "$", "WHILE_", i);
+                codeGenerator.writePush(MemorySegment.ARGUMENT, i);
+                codeGenerator.writeArithLogical("+");
+                codeGenerator.writeIfGOTO("Main.f" + i + "$", "WHILE_END_", i);
+                codeGenerator.writeStringLiteral("x");
+                codeGenerator.writeFuncCall("Main", "g", 0);
+                codeGenerator.writeReturn();
+            }
+        }
+        emitter.flush();
+        assertEquals(sink.toString(), stream.toString(StandardCharsets.ISO_8859_1));
+        assertTrue(sink.toString().startsWith("function Main.f0 0\n" +
+                "label Main.f0$WHILE_0\n" +
+                "push argument 0\n" +
+                "add\n" +
+                "if-goto Main.f0$WHILE_END_0\n" +
+                "push constant 1\n" +
+                "call String.new 1\n" +
+                "push constant 120\n" +
+                "call String.appendChar 2\n" +
+                "call Main.g 0\n" +
+                "return\n"));
+    }
+
+    @Test
+    void testEmitterDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CodeGenerator codeGenerator = new CodeGenerator(new VmEmitter(OutputStream.nullOutputStream()));
+        for (int round = 0; round < 3; round++) { // the first rounds also warm up the code
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < 1000000; i++) {
+                codeGenerator.writePush(MemorySegment.LOCAL, i);
+                codeGenerator.writeArithLogical("-");
+                codeGenerator.writeLabel("Main.main$", "IF_ELSE_", i);
+                codeGenerator.writeFuncCall("Math", "abs", 1);
+            }
+            allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+            if (round == 2) {
+                assertTrue(allocated < 100000, allocated + " bytes allocated for 4 million instructions");
+            }
+        }
+    }
 }
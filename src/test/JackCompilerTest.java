@@ -0,0 +1,223 @@
+package test;
+
+import main.JackCompiler;
+import main.Parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JackCompilerTest {
+
+    private static final String MAIN = "class Main {\n" +
+            "    function void main() {\n" +
+            "        do Output.printInt(1);\n" +
+            "        return;\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String BROKEN = "class Broken {\n" +
+            "    function void main() {\n" +
+            "        let undeclared = 1;\n" +
+            "        return;\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    void testFindJackFiles(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("B.jack"), MAIN);
+        Files.writeString(directory.resolve("A.jack"), MAIN);
+        Files.writeString(directory.resolve("A.vm"), "");
+        Files.createDirectory(directory.resolve("lib"));
+        Files.writeString(directory.resolve("lib").resolve("C.jack"), MAIN);
+
+        List<File> files = JackCompiler.findJackFiles(directory.toFile(), false);
+        assertEquals(Arrays.asList(directory.resolve("A.jack").toFile(), directory.resolve("B.jack").toFile()), files);
+        files = JackCompiler.findJackFiles(directory.toFile(), true);
+        assertEquals(Arrays.asList(directory.resolve("A.jack").toFile(), directory.resolve("B.jack").toFile(),
+                directory.resolve("lib").resolve("C.jack").toFile()), files);
+    }
+
+    @Test
+    void testFailureDoesNotAbortBatch(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("Broken.jack"), BROKEN);
+        Files.writeString(directory.resolve("Main.jack"), MAIN);
+        Files.createDirectory(directory.resolve("lib"));
+        Files.writeString(directory.resolve("lib").resolve("Main.jack"), MAIN);
+        String expected = "function Main.main 0\n" +
+                "push constant 1\n" +
+                "call Output.printInt 1\n" +
+                "pop temp 0\n" +
+                "push constant 0\n" +
+                "return\n";
+
+        for (boolean splitClasses : new boolean[]{false, true}) {
+            Files.deleteIfExists(directory.resolve("Main.vm"));
+            Files.deleteIfExists(directory.resolve("lib").resolve("Main.vm"));
+            List<String> failures = JackCompiler.compileAll(JackCompiler.findJackFiles(directory.toFile(), true),
+                    2, splitClasses, false, false);
+            assertEquals(1, failures.size());
+            assertTrue(failures.get(0).contains("Broken.jack"));
+            assertTrue(failures.get(0).contains("Symbol undeclared cannot be found"));
+            assertEquals(expected, Files.readString(directory.resolve("Main.vm")));
+            assertEquals(expected, Files.readString(directory.resolve("lib").resolve("Main.vm")));
+        }
+    }
+
+    @Test
+    void testSplitClassesRejectWhatParserRejects(@TempDir Path directory) throws IOException {
+        String[] sources = {
+                "class A {\n" +
+                        "    method void f() { return; }\n" +
+                        "    garbage\n" +
+                        "    function void g() { return; }\n" +
+                        "}\n",
+                "class A {\n" +
+                        "    garbage\n" +
+                        "    function void g() { return; }\n" +
+                        "}\n",
+                "class A {\n" +
+                        "    function void g() { return; }\n",
+                "class A {\n" +
+                        "    function void g() { return; }\n" +
+                        "}\n" +
+                        "}\n"};
+        String[] expected = {
+                ":3:5: Expected a subroutine or '}' but found 'garbage'",
+                ":2:5: Expected a subroutine or '}' but found 'garbage'",
+                ":3:1: Expected a subroutine or '}' but reached the end of the file",
+                ":4:1: Expected the end of the file but found '}'"};
+        File jackFile = directory.resolve("A.jack").toFile();
+        for (int i = 0; i < sources.length; i++) {
+            Files.writeString(jackFile.toPath(), sources[i]);
+            for (boolean splitClasses : new boolean[]{false, true}) {
+                List<String> failures = JackCompiler.compileAll(List.of(jackFile), 2, splitClasses, false, false);
+                assertEquals(List.of(jackFile + expected[i]), failures);
+            }
+        }
+    }
+
+    @Test
+    void testOptimizeReportsInFileOrder(@TempDir Path directory) throws IOException {
+        StringBuilder large = new StringBuilder("class C {\n");
+        for (int i = 0; i < 200; i++) { // started first, as the largest file
+            large.append("    function int f").append(i).append("() {\n        return 2 * 3;\n    }\n");
+        }
+        large.append("}\n");
+        Files.writeString(directory.resolve("A.jack"), MAIN);
+        Files.writeString(directory.resolve("Broken.jack"), BROKEN);
+        Files.writeString(directory.resolve("C.jack"), large.toString());
+        List<File> jackFiles = JackCompiler.findJackFiles(directory.toFile(), false);
+
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> reports = new ArrayList<>();
+            List<String> failures = JackCompiler.compileAll(jackFiles, 3, false, binary, true, reports);
+            assertEquals(1, failures.size());
+            assertEquals(Arrays.asList(directory.resolve("A.jack") + ": removed 0 of 6 VM instructions",
+                    directory.resolve("C.jack") + ": removed 400 of 1000 VM instructions"), reports);
+        }
+        List<String> reports = new ArrayList<>();
+        JackCompiler.compileAll(jackFiles, 3, false, false, false, reports);
+        assertTrue(reports.isEmpty());
+    }
+
+    @Test
+    void testSplitClassesCombineWithOptimizeAndBinary(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("A.jack"), MAIN);
+        StringBuilder large = new StringBuilder("class C {\n    field int x;\n");
+        for (int i = 0; i < 50; i++) {
+            large.append("    method int f").append(i).append("() {\n")
+                    .append("        while (x > 0) { let x = x - (2 * 3); }\n")
+                    .append("        return x;\n    }\n");
+        }
+        large.append("}\n");
+        Files.writeString(directory.resolve("C.jack"), large.toString());
+        List<File> jackFiles = JackCompiler.findJackFiles(directory.toFile(), false);
+
+        boolean[][] modes = {{true, false}, {false, true}, {true, true}};
+        for (boolean[] mode : modes) {
+            String extension = mode[0] ? ".vmb" : ".vm";
+            List<String> reports = new ArrayList<>();
+            assertTrue(JackCompiler.compileAll(jackFiles, 2, false, mode[0], mode[1], reports).isEmpty());
+            byte[] expected = Files.readAllBytes(directory.resolve("C" + extension));
+            List<String> splitReports = new ArrayList<>();
+            assertTrue(JackCompiler.compileAll(jackFiles, 2, true, mode[0], mode[1], splitReports).isEmpty());
+            assertArrayEquals(expected, Files.readAllBytes(directory.resolve("C" + extension)));
+            assertEquals(reports, splitReports);
+        }
+    }
+
+    @Test
+    void testFailureLeavesNoOutputFile(@TempDir Path directory) throws IOException {
+        // enough VM code to be streamed out before the last subroutine fails
+        StringBuilder sourceCode = new StringBuilder("class A {\n");
+        for (int i = 0; i < 3000; i++) {
+            sourceCode.append("    function int f").append(i).append("(int x) {\n        return x + ")
+                    .append(i == 2999 ? "y" : "1").append(";\n    }\n");
+        }
+        sourceCode.append("}\n");
+        File jackFile = directory.resolve("A.jack").toFile();
+        Files.writeString(jackFile.toPath(), sourceCode);
+
+        boolean[][] modes = {{false, false, false}, {true, false, false}, {false, true, false}, {false, false, true}};
+        for (boolean[] mode : modes) {
+            List<String> failures = JackCompiler.compileAll(List.of(jackFile), 1, mode[0], mode[1], mode[2]);
+            assertEquals(List.of(jackFile + ":9000:20: Symbol y cannot be found"), failures);
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(List.of(jackFile.toPath()), files.collect(Collectors.toList()));
+            }
+        }
+    }
+
+    @Test
+    void testCheckAllWritesNothing(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("Broken.jack"), BROKEN);
+        Files.writeString(directory.resolve("Main.jack"), MAIN);
+
+        List<String> problems = JackCompiler.checkAll(JackCompiler.findJackFiles(directory.toFile(), false), 2);
+        assertEquals(Arrays.asList(directory.resolve("Broken.jack") + ":3:13: Symbol undeclared cannot be found"),
+                problems);
+        assertFalse(Files.exists(directory.resolve("Broken.vm")));
+        assertFalse(Files.exists(directory.resolve("Main.vm")));
+    }
+
+    @Test
+    void testLargeClassCompilesInSmallHeap(@TempDir Path directory) throws Exception {
+        int numFunctions = 2000;
+        StringBuilder sourceCode = new StringBuilder("class Huge {\n    static int total;\n");
+        for (int i = 0; i < numFunctions; i++) {
+            sourceCode.append("    function int f").append(i).append("(int x) {\n")
+                    .append("        var int y;\n")
+                    .append("        let y = x;\n");
+            for (int j = 0; j < 60; j++) {
+                sourceCode.append("        if (y > ").append(j).append(") { let y = y - (x * 2); } ")
+                        .append("else { let total = total + y; }\n");
+            }
+            sourceCode.append("        return y;\n")
+                    .append("    }\n");
+        }
+        sourceCode.append("}\n");
+        Path jackFile = directory.resolve("Huge.jack");
+        Files.writeString(jackFile, sourceCode);
+
+        // about 9 MB of source and 30 MB of VM code, which do not fit into the heap all at once
+        String javaPath = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = Path.of(JackCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString();
+        Process process = new ProcessBuilder(javaPath, "-Xmx16m", "-cp", classPath, "main.JackCompiler", "-j", "1",
+                jackFile.toString()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertEquals(0, process.waitFor(), output);
+        assertEquals(new Parser(jackFile.toFile()).compileClass(), Files.readString(directory.resolve("Huge.vm")));
+    }
+}
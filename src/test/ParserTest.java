@@ -1,10 +1,20 @@
 package test;
 
+import ast.*;
+import main.CompileError;
+import main.Diagnostic;
 import main.ExpressionList;
+import main.FlatCodeGenerator;
+import main.FlatParser;
+import main.InternPool;
+import main.ParallelClassCompiler;
 import main.Parser;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import main.SubroutineBody;
+import main.TokenTable;
+import main.Tokenizer;
+import main.VmEmitter;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -15,6 +25,9 @@ import symboltable.SubroutineSymbolTable;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -299,19 +312,18 @@ class ParserTest {
         subroutineST.define("myVar", "int", SymbolKind.LOCAL);
 
         String parsed = parser.compileIfStatement();
-        int currNumLabel = Parser.getNumLabels();
         String expected = "push local 0\n" +
                 "push local 1\n" +
                 "lt\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", currNumLabel - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push local 0\n" +
                 "push constant 1\n" +
                 "add\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", currNumLabel - 1) +
-                String.format("label LBL_%d\n", currNumLabel - 2) +
-                String.format("label LBL_%d\n", currNumLabel - 1);
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
+                "label IF_END_0\n";
 
         Assertions.assertEquals(expected, parsed);
     }
@@ -326,24 +338,23 @@ class ParserTest {
 
         parser.setCurrentClassName("SomeClass");
         String parsed = parser.compileIfStatement();
-        int currNumLabel = Parser.getNumLabels();
         String expected = "push local 0\n" +
                 "push local 1\n" +
                 "lt\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", currNumLabel - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push local 0\n" +
                 "push constant 1\n" +
                 "add\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", currNumLabel - 1) +
-                String.format("label LBL_%d\n", currNumLabel - 2) +
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "call SomeClass.subroutine_call 1\n" +
                 "pop temp 0\n" +
                 "push constant 10\n" +
                 "return\n" +
-                String.format("label LBL_%d\n", currNumLabel - 1);
+                "label IF_END_0\n";
         Assertions.assertEquals(expected, parsed);
     }
 
@@ -357,12 +368,11 @@ class ParserTest {
         classST.define("myInt", "int", SymbolKind.FIELD);
         subroutineST.define("myVar", "String", SymbolKind.LOCAL);
         String parsed = parser.compileStatements();
-        int numLabels = Parser.getNumLabels();
         String expected = "push this 0\n" +
                 "push constant 10\n" +
                 "eq\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "push constant 4\n" + // "test" string literal
                 "call String.new 1\n" +
@@ -392,9 +402,9 @@ class ParserTest {
                 "pop local 0\n" +
                 "push local 0\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
+                "label IF_END_0\n";
         Assertions.assertEquals(expected, parsed);
     }
 
@@ -439,13 +449,12 @@ class ParserTest {
         classST.define("myVar", "String", SymbolKind.FIELD);
 
         SubroutineBody compiledSB = parser.compileSubroutineBody();
-        int numLabels = Parser.getNumLabels();
 
         String expected = "push this 0\n" +
                 "push constant 10\n" +
                 "eq\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "push constant 4\n" + // "test" string literal
                 "call String.new 1\n" +
@@ -475,9 +484,9 @@ class ParserTest {
                 "pop this 1\n" +
                 "push this 1\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
+                "label IF_END_0\n";
 
         Assertions.assertEquals(expected, compiledSB.getVmCode());
         assertEquals(0, compiledSB.getNumLocals());
@@ -493,12 +502,11 @@ class ParserTest {
         classST.define("myVar", "String", SymbolKind.FIELD);
 
         SubroutineBody compiledSB = parser.compileSubroutineBody();
-        int numLabels = Parser.getNumLabels();
         String expected = "push this 0\n" +
                 "push constant 10\n" +
                 "eq\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "push constant 4\n" + // "test" string literal
                 "call String.new 1\n" +
@@ -528,9 +536,9 @@ class ParserTest {
                 "pop this 1\n" +
                 "push this 1\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
+                "label IF_END_0\n";
         String[] varNames = {"obj1", "obj2", "obj3"};
         for (int i = 0; i < varNames.length; i++) {
             Optional<Symbol> boxedSymbol = subroutineST.lookUp(varNames[i]);
@@ -552,7 +560,6 @@ class ParserTest {
         parser.setCurrentClassName("MyClass");
         String parsed = parser.compileSubroutineDec();
         SubroutineSymbolTable subroutineST = parser.getSubroutineST();
-        int numLabels = Parser.getNumLabels();
         String expected = "function MyClass.myMethod 3\n" +
                 "push argument 0\n" +
                 "pop pointer 0\n" +
@@ -560,7 +567,7 @@ class ParserTest {
                 "push constant 10\n" +
                 "eq\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto MyClass.myMethod$IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "push constant 4\n" + // "test" string literal
                 "call String.new 1\n" +
@@ -590,9 +597,9 @@ class ParserTest {
                 "pop this 1\n" +
                 "push this 1\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto MyClass.myMethod$IF_END_0\n" +
+                "label MyClass.myMethod$IF_ELSE_0\n" +
+                "label MyClass.myMethod$IF_END_0\n";
 
         Assertions.assertEquals(expected, parsed);
         assertEquals(0, subroutineST.lookUp("num1").get().getNumKind());
@@ -632,13 +639,12 @@ class ParserTest {
         this.parser = new Parser(new File("ParserTests/test_class_dec_no_class_var.txt"));
         String parsed = parser.compileClass();
         SubroutineSymbolTable subroutineST = parser.getSubroutineST();
-        int numLabels = Parser.getNumLabels();
         String expected = "function MyClass.myFunc 3\n" +
                 "push argument 0\n" +
                 "push constant 10\n" +
                 "eq\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto MyClass.myFunc$IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "push constant 4\n" + // "test" string literal
                 "call String.new 1\n" +
@@ -655,9 +661,9 @@ class ParserTest {
                 "pop temp 0\n" + // pop for void method
                 "push argument 0\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto MyClass.myFunc$IF_END_0\n" +
+                "label MyClass.myFunc$IF_ELSE_0\n" +
+                "label MyClass.myFunc$IF_END_0\n";
 
         Assertions.assertEquals(expected, parsed);
         assertEquals(0, subroutineST.lookUp("num1").get().getNumKind());
@@ -681,13 +687,12 @@ class ParserTest {
         String parsed = parser.compileClass();
         SubroutineSymbolTable subroutineST = parser.getSubroutineST();
         ClassSymbolTable classST = parser.getClassST();
-        int numLabels = Parser.getNumLabels();
         String expected = "function MyClass.myFunc 3\n" +
                 "push argument 0\n" +
                 "push constant 10\n" +
                 "eq\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto MyClass.myFunc$IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "push constant 4\n" + // "test" string literal
                 "call String.new 1\n" +
@@ -704,9 +709,9 @@ class ParserTest {
                 "pop temp 0\n" + // pop for void method
                 "push argument 0\n" +
                 "return\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto MyClass.myFunc$IF_END_0\n" +
+                "label MyClass.myFunc$IF_ELSE_0\n" +
+                "label MyClass.myFunc$IF_END_0\n";
 
         assertEquals(0, subroutineST.lookUp("num1").get().getNumKind());
         assertEquals(SymbolKind.ARGUMENT, subroutineST.lookUp("num1").get().getSymbolKind());
@@ -766,7 +771,6 @@ class ParserTest {
         classST.define("x", "int", SymbolKind.FIELD);
         subroutineST.define("size", "int", SymbolKind.LOCAL);
         String parsed = parser.compileStatements();
-        int numLabels = Parser.getNumLabels();
 
         String expected = "push this 0\n" + // y
                 "push local 0\n" + // size
@@ -780,13 +784,13 @@ class ParserTest {
                 "lt\n" +
                 "and\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "call MyClass.erase 1\n" +
                 "pop temp 0\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
+                "label IF_END_0\n";
         Assertions.assertEquals(expected, parsed);
     }
 
@@ -801,7 +805,6 @@ class ParserTest {
         classST.define("x", "int", SymbolKind.FIELD);
         subroutineST.define("size", "int", SymbolKind.LOCAL);
         String parsed = parser.compileStatements();
-        int numLabels = Parser.getNumLabels();
 
         String expected = "push this 0\n" + // y
                 "push local 0\n" + // size
@@ -817,13 +820,13 @@ class ParserTest {
                 "lt\n" +
                 "and\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 2) +
+                "if-goto IF_ELSE_0\n" +
                 "push pointer 0\n" +
                 "call MyClass.erase 1\n" +
                 "pop temp 0\n" +
-                String.format("goto LBL_%d\n", numLabels - 1) +
-                String.format("label LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto IF_END_0\n" +
+                "label IF_ELSE_0\n" +
+                "label IF_END_0\n";
         Assertions.assertEquals(expected, parsed);
     }
 
@@ -947,20 +950,419 @@ class ParserTest {
         subroutineST.define("b", "boolean", SymbolKind.ARGUMENT);
 
         String parsed = parser.compileWhileStatement();
-        int numLabels = Parser.getNumLabels();
-        String expected = String.format("label LBL_%d\n", numLabels - 2) +
+        String expected = "label WHILE_0\n" +
                 "push local 0\n" +
                 "push static 0\n" +
                 "push argument 0\n" +
                 "and\n" +
                 "call Object.check 2\n" +
                 "not\n" +
-                String.format("if-goto LBL_%d\n", numLabels - 1) +
+                "if-goto WHILE_END_0\n" +
                 "push pointer 0\n" +
                 "call SomeClass.something 1\n" +
                 "pop temp 0\n" +
-                String.format("goto LBL_%d\n", numLabels - 2) +
-                String.format("label LBL_%d\n", numLabels - 1);
+                "goto WHILE_0\n" +
+                "label WHILE_END_0\n";
         assertEquals(expected, parsed);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testClassDecInMemorySource() {
+        this.parser = new Parser("class Main {\n" +
+                "    static int total;\n" +
+                "    function void main(int n) {\n" +
+                "        let total = n * 2;\n" +
+                "        do Output.printInt(total);\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n");
+        String expected = "function Main.main 0\n" +
+                "push argument 0\n" +
+                "push constant 2\n" +
+                "call Math.multiply 2\n" +
+                "pop static 0\n" +
+                "push static 0\n" +
+                "call Output.printInt 1\n" +
+                "pop temp 0\n" +
+                "push constant 0\n" +
+                "return\n";
+        assertEquals(expected, parser.compileClass());
+    }
+
+    @Test
+    void testClassDecFromTokenTable() {
+        String sourceCode = "class Point {\n" +
+                "    field int x, y;\n" +
+                "    method int sum() { return x + y; }\n" +
+                "}\n";
+        ByteBuffer source = ByteBuffer.wrap(sourceCode.getBytes(StandardCharsets.ISO_8859_1));
+        TokenTable table = TokenTable.tokenize(source, new InternPool());
+        this.parser = new Parser(new Tokenizer(table));
+        String expected = "function Point.sum 0\n" +
+                "push argument 0\n" +
+                "pop pointer 0\n" +
+                "push this 0\n" +
+                "push this 1\n" +
+                "add\n" +
+                "return\n";
+        assertEquals(expected, parser.compileClass());
+        assertEquals(expected, new Parser(sourceCode).compileClass());
+    }
+
+    @Test
+    void testParseClassBuildsAst() {
+        this.parser = new Parser("class Counter {\n" +
+                "    field int count;\n" +
+                "    method void add(int n) {\n" +
+                "        let count = count + (n * 2);\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n");
+        ClassDec classDec = parser.parseClass();
+        assertEquals("Counter", classDec.getClassName());
+        assertEquals(1, classDec.getSubroutines().size());
+
+        SubroutineDec add = classDec.getSubroutines().get(0);
+        assertEquals(SubroutineKind.METHOD, add.getSubroutineKind());
+        assertEquals("add", add.getSubroutineName());
+        assertEquals("void", add.getReturnType());
+        assertEquals(2, add.getStatements().size());
+        assertInstanceOf(ReturnStatement.class, add.getStatements().get(1));
+
+        LetStatement let = (LetStatement) add.getStatements().get(0);
+        assertEquals(SymbolKind.FIELD, let.getVariable().getSymbolKind());
+        assertNull(let.getIndex());
+        BinaryExpression sum = (BinaryExpression) let.getValue();
+        assertEquals("+", sum.getOperator());
+        assertEquals(let.getVariable(), ((VariableReference) sum.getLeft()).getVariable());
+        BinaryExpression product = (BinaryExpression) sum.getRight();
+        assertEquals("*", product.getOperator());
+        assertEquals(SymbolKind.ARGUMENT, ((VariableReference) product.getLeft()).getVariable().getSymbolKind());
+        assertEquals(2, ((IntegerConstant) product.getRight()).getValue());
+    }
+
+    @Test
+    void testFlatParserMatchesParser() {
+        String sourceCode = "class Vector {\n" +
+                "    field Array items;\n" +
+                "    field int size;\n" +
+                "    static String label;\n" +
+                "    constructor Vector new(int capacity) {\n" +
+                "        let items = Array.new(capacity);\n" +
+                "        let size = 0;\n" +
+                "        let label = \"vec\";\n" +
+                "        return this;\n" +
+                "    }\n" +
+                "    method void push(int x) {\n" +
+                "        let items[size] = -(x * 2) + items[size - 1];\n" +
+                "        let size = size + 1;\n" +
+                "        do print(~(size < 3), true);\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n";
+        InternPool pool = new InternPool();
+        ByteBuffer source = ByteBuffer.wrap(sourceCode.getBytes(StandardCharsets.ISO_8859_1));
+        AstPool ast = new FlatParser(new Tokenizer(source, pool)).parseClass();
+        assertEquals(AstPool.CLASS, ast.kind(AstPool.ROOT));
+        assertEquals("Vector", pool.name(ast.operand(AstPool.ROOT)));
+        assertEquals(2, ast.numChildren(AstPool.ROOT));
+        StringBuilder vmCode = new StringBuilder();
+        new FlatCodeGenerator(ast, vmCode).writeClass(AstPool.ROOT);
+        assertEquals(new Parser(sourceCode).compileClass(), vmCode.toString());
+    }
+
+    @Test
+    void testFlatParserReportsSyntaxErrors() {
+        String[] statements = {
+                "let x = 1 return;",
+                "let x 1;",
+                "let a[1 2] = 3;",
+                "let y = 1;",
+                "if (x { }",
+                "while (x) { let x = (x + 1; }",
+                "do Output.printInt(1, 2;",
+                "do Output.printInt 1;",
+                "do x;",
+                "return x"};
+        String[] expected = {
+                "5:19: Expected ';' but found 'return'",
+                "5:15: Expected '[' or '=' but found '1'",
+                "5:17: Expected ']' but found '2'",
+                "5:13: Symbol y cannot be found",
+                "5:15: Expected ')' but found '{'",
+                "5:35: Expected ')' but found ';'",
+                "5:32: Expected ')' but found ';'",
+                "5:28: Expected '(' but found '1'",
+                "5:12: Expected a subroutine call but found 'x'",
+                "6:5: Expected ';' but found '}'"};
+        for (int i = 0; i < statements.length; i++) {
+            String sourceCode = "class A {\n" +
+                    "    function void f() {\n" +
+                    "        var int x;\n" +
+                    "        var Array a;\n" +
+                    "        " + statements[i] + "\n" +
+                    "    }\n" +
+                    "}\n";
+            CompileError error = Assertions.assertThrows(CompileError.class,
+                    () -> new Parser(sourceCode).compileClass());
+            assertEquals(expected[i], error.getDiagnostic().toString());
+            assertFlatParserRejects(expected[i], sourceCode);
+        }
+        assertSyntaxError("2:27: Expected ',' or ')' but found 'int'",
+                "class A {\n    function void f(int a int b) { return; }\n}\n");
+        assertSyntaxError("2:28: Expected a type but found ')'",
+                "class A {\n    function void f(int a, ) { return; }\n}\n");
+        assertSyntaxError("3:1: Expected a subroutine or '}' but reached the end of the file",
+                "class A {\n    function void f() { return; }\n");
+        assertSyntaxError("3:1: Expected the end of the file but found '}'", "class A {\n}\n}\n");
+        assertSyntaxError("3:16: Expected a term but found 'let'",
+                "class A {\n    function int f() {\n        return let;\n    }\n}\n");
+        assertSyntaxError("3:16: Expected a term but found '*'",
+                "class A {\n    function int f() {\n        return *1;\n    }\n}\n");
+    }
+
+    private static void assertFlatParserRejects(String expected, String sourceCode) {
+        ByteBuffer source = ByteBuffer.wrap(sourceCode.getBytes(StandardCharsets.ISO_8859_1));
+        CompileError error = Assertions.assertThrows(CompileError.class,
+                () -> new FlatParser(new Tokenizer(source, new InternPool())).compileClass());
+        assertEquals(expected, error.getDiagnostic().toString());
+    }
+
+    @Test
+    void testDeeplyNestedExpression() {
+        // far deeper than the call stack would allow if every level recursed
+        int depth = 100000;
+        StringBuilder sourceCode = new StringBuilder("class Main {\n" +
+                "    function void main() {\n" +
+                "        var int x;\n" +
+                "        var Array a;\n" +
+                "        let x = ");
+        StringBuilder expected = new StringBuilder("function Main.main 2\n");
+        for (int i = 0; i < depth; i++) {
+            sourceCode.append("(1 + -a[~Math.abs(");
+            expected.append("push constant 1\npush local 1\n");
+        }
+        sourceCode.append("x");
+        expected.append("push local 0\n");
+        for (int i = 0; i < depth; i++) {
+            sourceCode.append(")])");
+            expected.append("call Math.abs 1\nnot\nadd\npop pointer 1\npush that 0\nneg\nadd\n");
+        }
+        sourceCode.append(";\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n");
+        expected.append("pop local 0\npush constant 0\nreturn\n");
+        assertEquals(expected.toString(), new Parser(sourceCode.toString()).compileClass());
+        ByteBuffer source = ByteBuffer.wrap(sourceCode.toString().getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(expected.toString(), new FlatParser(new Tokenizer(source, new InternPool())).compileClass());
+    }
+
+    @Test
+    void testParallelClassCompilationMatchesParser() throws IOException {
+        String sourceCode = "class Counter {\n" +
+                "    field int count;\n" +
+                "    static int instances;\n" +
+                "    constructor Counter new() {\n" +
+                "        let count = 0;\n" +
+                "        let instances = instances + 1;\n" +
+                "        return this;\n" +
+                "    }\n" +
+                "    method void countTo(int n) {\n" +
+                "        var int i;\n" +
+                "        while (i < n) {\n" +
+                "            if (i = 3) { let count = count + 1; } else { do skip(i); }\n" +
+                "            let i = i + 1;\n" +
+                "        }\n" +
+                "        return;\n" +
+                "    }\n" +
+                "    method void skip(int i) {\n" +
+                "        if (i > count) { let count = i; }\n" +
+                "        return;\n" +
+                "    }\n" +
+                "    function int getInstances() {\n" +
+                "        return instances;\n" +
+                "    }\n" +
+                "}\n";
+        String sequential = new Parser(sourceCode).compileClass();
+        ByteBuffer source = ByteBuffer.wrap(sourceCode.getBytes(StandardCharsets.ISO_8859_1));
+        StringBuilder parallel = new StringBuilder();
+        ParallelClassCompiler.compileClass(TokenTable.tokenize(source, new InternPool()), parallel);
+        assertEquals(sequential, parallel.toString());
+        VmEmitter instructions = new VmEmitter();
+        ParallelClassCompiler.compileClass(TokenTable.tokenize(source, new InternPool()), instructions);
+        assertEquals(sequential, instructions.toString());
+    }
+
+    @Test
+    void testLabelsAreLocalToSubroutine() {
+        String sourceCode = "class Main {\n" +
+                "    function void run(int n) {\n" +
+                "        while (n > 0) {\n" +
+                "            if (n = 1) { let n = 0; }\n" +
+                "            let n = n - 1;\n" +
+                "        }\n" +
+                "        return;\n" +
+                "    }\n" +
+                "    function void stop() {\n" +
+                "        while (true) { }\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n";
+        String expected = "function Main.run 0\n" +
+                "label Main.run$WHILE_0\n" +
+                "push argument 0\n" +
+                "push constant 0\n" +
+                "gt\n" +
+                "not\n" +
+                "if-goto Main.run$WHILE_END_0\n" +
+                "push argument 0\n" +
+                "push constant 1\n" +
+                "eq\n" +
+                "not\n" +
+                "if-goto Main.run$IF_ELSE_0\n" +
+                "push constant 0\n" +
+                "pop argument 0\n" +
+                "goto Main.run$IF_END_0\n" +
+                "label Main.run$IF_ELSE_0\n" +
+                "label Main.run$IF_END_0\n" +
+                "push argument 0\n" +
+                "push constant 1\n" +
+                "sub\n" +
+                "pop argument 0\n" +
+                "goto Main.run$WHILE_0\n" +
+                "label Main.run$WHILE_END_0\n" +
+                "push constant 0\n" +
+                "return\n" +
+                "function Main.stop 0\n" +
+                "label Main.stop$WHILE_0\n" +
+                "push constant 1\n" +
+                "neg\n" +
+                "not\n" +
+                "if-goto Main.stop$WHILE_END_0\n" +
+                "goto Main.stop$WHILE_0\n" +
+                "label Main.stop$WHILE_END_0\n" +
+                "push constant 0\n" +
+                "return\n";
+        // the output does not depend on what was compiled before
+        assertEquals(expected, new Parser(sourceCode).compileClass());
+        assertEquals(expected, new Parser(sourceCode).compileClass());
+    }
+
+    @Test
+    void testCheckReportsUndefinedSymbols() {
+        String sourceCode = "class Main {\n" +
+                "    field int size;\n" +
+                "    method void grow(int by) {\n" +
+                "        let size = size + amount;\n" +
+                "        let total[size] = by;\n" +
+                "        return;\n" +
+                "    }\n" +
+                "}\n";
+        List<Diagnostic> diagnostics = new Parser(sourceCode).check();
+        assertEquals(2, diagnostics.size());
+        assertEquals(Diagnostic.Kind.UNDEFINED_SYMBOL, diagnostics.get(0).getKind());
+        assertEquals("4:27: Symbol amount cannot be found", diagnostics.get(0).toString());
+        assertEquals("5:13: Symbol total cannot be found", diagnostics.get(1).toString());
+        // compiling stops at the first one
+        CompileError error = Assertions.assertThrows(CompileError.class, () -> new Parser(sourceCode).compileClass());
+        assertEquals(diagnostics.get(0).toString(), error.getDiagnostic().toString());
+    }
+
+    @Test
+    void testCheckStopsAtSyntaxError() {
+        String sourceCode = "class Main {\n" +
+                "    function void main() {\n" +
+                "        let x = 1;\n" +
+                "        do Output.printInt(2;\n" +
+                "        let y = 3;\n" +
+                "    }\n" +
+                "}\n";
+        List<Diagnostic> diagnostics = new Parser(sourceCode).check();
+        assertEquals(2, diagnostics.size());
+        assertEquals("3:13: Symbol x cannot be found", diagnostics.get(0).toString());
+        assertEquals(Diagnostic.Kind.SYNTAX_ERROR, diagnostics.get(1).getKind());
+        assertEquals("4:29: Expected ')' but found ';'", diagnostics.get(1).toString());
+
+        diagnostics = new Parser("class Main {\n    function void main() {\n        return;\n").check();
+        assertEquals(1, diagnostics.size());
+        assertEquals("4:1: Expected '}' but reached the end of the file", diagnostics.get(0).toString());
+        assertTrue(new Parser("class Main {\n}\n").check().isEmpty());
+    }
+
+    @Test
+    void testCheckReportsTruncatedInput() {
+        String subroutine = "class A {\n    function void f() {\n        ";
+        String[] sourceCodes = {"class A { static", "class A { function void", subroutine + "let",
+                subroutine + "return -", subroutine + "do Foo.", subroutine + "var int x,", "class A { method int f(int"};
+        String[] expected = {
+                "1:17: Expected a type but reached the end of the file",
+                "1:24: Expected a subroutine name but reached the end of the file",
+                "3:12: Expected a variable name but reached the end of the file",
+                "3:17: Expected a term but reached the end of the file",
+                "3:16: Expected a subroutine name but reached the end of the file",
+                "3:19: Expected a variable name but reached the end of the file",
+                "1:27: Expected a parameter name but reached the end of the file"};
+        for (int i = 0; i < sourceCodes.length; i++) {
+            assertSyntaxError(expected[i], sourceCodes[i]);
+        }
+    }
+
+    @Test
+    void testNamesMustBeIdentifiers() {
+        assertSyntaxError("1:7: Expected a class name but found '5'", "class 5 {\n}\n");
+        assertSyntaxError("2:16: Expected a variable name but found '+'", "class A {\n    static int +;\n}\n");
+        assertSyntaxError("2:11: Expected a type but found 'return'", "class A {\n    field return x;\n}\n");
+        assertSyntaxError("2:17: Expected ',' or ';' but found 'b'", "class A {\n    field int a b;\n}\n");
+        assertSyntaxError("2:14: Expected a return type but found 'let'",
+                "class A {\n    function let f() { return; }\n}\n");
+        assertSyntaxError("2:19: Expected a subroutine name but found 'do'",
+                "class A {\n    function void do() { return; }\n}\n");
+        assertSyntaxError("2:24: Expected a parameter name but found ','",
+                "class A {\n    function void f(int, int b) { return; }\n}\n");
+        assertSyntaxError("2:21: Expected a type or ')' but found '1'",
+                "class A {\n    function void f(1) { return; }\n}\n");
+        assertSyntaxError("3:17: Expected a variable name but found ';'",
+                "class A {\n    function void f() {\n        var int ;\n        return;\n    }\n}\n");
+        assertSyntaxError("3:13: Expected a variable name but found 'this'",
+                "class A {\n    method void f() {\n        let this = 1;\n        return;\n    }\n}\n");
+        assertSyntaxError("3:19: Expected a subroutine name but found '1'",
+                "class A {\n    function void f() {\n        do Output.1();\n        return;\n    }\n}\n");
+    }
+
+    /**
+     * Checks that compiling a class fails with a syntax error, with either parser, and that check reports the
+     * same error
+     */
+    private static void assertSyntaxError(String expected, String sourceCode) {
+        CompileError error = Assertions.assertThrows(CompileError.class, () -> new Parser(sourceCode).compileClass());
+        assertEquals(expected, error.getDiagnostic().toString());
+        assertFlatParserRejects(expected, sourceCode);
+        List<Diagnostic> diagnostics = new Parser(sourceCode).check();
+        assertEquals(1, diagnostics.size());
+        assertEquals(Diagnostic.Kind.SYNTAX_ERROR, diagnostics.get(0).getKind());
+        assertEquals(expected, diagnostics.get(0).toString());
+    }
+
+    @Test
+    void testDoStatementMustCallSubroutine() {
+        String[] calls = {"x", "x[1]", "5"};
+        String[] found = {"x", "x", "5"};
+        for (int i = 0; i < calls.length; i++) {
+            String sourceCode = "class A {\n" +
+                    "    function void f() {\n" +
+                    "        var int x;\n" +
+                    "        do " + calls[i] + ";\n" +
+                    "        return;\n" +
+                    "    }\n" +
+                    "}\n";
+            String expected = "4:12: Expected a subroutine call but found '" + found[i] + "'";
+            CompileError error = Assertions.assertThrows(CompileError.class, () -> new Parser(sourceCode).compileClass());
+            assertEquals(expected, error.getDiagnostic().toString());
+            List<Diagnostic> diagnostics = new Parser(sourceCode).check();
+            assertEquals(1, diagnostics.size());
+            assertEquals(Diagnostic.Kind.SYNTAX_ERROR, diagnostics.get(0).getKind());
+            assertEquals(expected, diagnostics.get(0).toString());
+        }
+    }
+}
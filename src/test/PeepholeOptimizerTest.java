@@ -0,0 +1,267 @@
+package test;
+
+import main.MemorySegment;
+import main.Parser;
+import main.PeepholeOptimizer;
+import main.VmProgram;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeepholeOptimizerTest {
+
+    private static final String SOURCE_CODE = "class Main {\n" +
+            "    function int f(int x, Array a) {\n" +
+            "        var int i;\n" +
+            "        if (x < 1) {\n" +
+            "            let x = 2;\n" +
+            "        }\n" +
+            "        let a[i] = x;\n" +
+            "        while (true) {\n" +
+            "            if (~(x = 0)) {\n" +
+            "                return x;\n" +
+            "            } else {\n" +
+            "                let x = ~~x;\n" +
+            "            }\n" +
+            "        }\n" +
+            "        return 0;\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    void testOptimizeClass() {
+        String expected = "function Main.f 1\n" +
+                "push argument 0\n" +
+                "push constant 1\n" +
+                "lt\n" +
+                "not\n" +
+                "if-goto Main.f$IF_ELSE_0\n" +
+                "push constant 2\n" +
+                "pop argument 0\n" +
+                "label Main.f$IF_ELSE_0\n" + // goto IF_END_0 jumped to the next instruction
+                "push argument 1\n" +
+                "push local 0\n" +
+                "add\n" +
+                "pop pointer 1\n" + // x is pushed after aligning THAT instead of passing through temp 0
+                "push argument 0\n" +
+                "pop that 0\n" +
+                "label Main.f$WHILE_0\n" + // ~true never leaves the loop
+                "push argument 0\n" +
+                "push constant 0\n" +
+                "eq\n" + // not; not cancel out, twice
+                "if-goto Main.f$IF_ELSE_1\n" +
+                "push argument 0\n" +
+                "return\n" +
+                "label Main.f$IF_ELSE_1\n" + // x = ~~x is x = x
+                "goto Main.f$WHILE_0\n"; // the code after the loop is unreachable
+        VmProgram program = new Parser(SOURCE_CODE).compileProgram();
+        VmProgram optimized = new VmProgram();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(optimized);
+        program.replay(optimizer);
+        optimizer.flush();
+        assertEquals(expected, optimized.toString());
+        assertEquals(program.size(), optimizer.getNumReceived());
+        assertEquals(optimized.size(), optimizer.getNumWritten());
+        assertEquals(program.size() - optimized.size(), optimizer.getNumRemoved());
+    }
+
+    @Test
+    void testInvertedBranch() {
+        VmProgram program = new VmProgram();
+        program.emitFunction("Main.f", 0);
+        program.emitPush(MemorySegment.ARGUMENT, 0);
+        program.emitPush(MemorySegment.CONSTANT, 0);
+        program.emitArithmetic(VmProgram.GT);
+        program.emitArithmetic(VmProgram.NOT);
+        program.emitIfGOTO("A");
+        program.emitGOTO("B");
+        program.emitLabel("A");
+        program.emitPush(MemorySegment.CONSTANT, 1);
+        program.emitReturn();
+        program.emitLabel("B");
+        program.emitPush(MemorySegment.CONSTANT, 0);
+        program.emitReturn();
+        assertEquals("function Main.f 0\n" +
+                "push argument 0\n" +
+                "push constant 0\n" +
+                "gt\n" +
+                "if-goto B\n" +
+                "push constant 1\n" +
+                "return\n" +
+                "label B\n" +
+                "push constant 0\n" +
+                "return\n", PeepholeOptimizer.optimize(program).toString());
+    }
+
+    @Test
+    void testKeepsWhatMayMatter() {
+        VmProgram program = new VmProgram();
+        program.emitFunction("Main.f", 1);
+        program.emitPush(MemorySegment.CONSTANT, 3);
+        program.emitPop(MemorySegment.CONSTANT, 3); // not a move, constant has no memory
+        program.emitPop(MemorySegment.LOCAL, 0);
+        program.emitPush(MemorySegment.LOCAL, 0); // local outlives the statement, unlike temp
+        program.emitArithmetic(VmProgram.NOT);
+        program.emitIfGOTO("A"); // not all values are canonical booleans, the not stays
+        program.emitPush(MemorySegment.THAT, 0);
+        program.emitPop(MemorySegment.TEMP, 0);
+        program.emitPop(MemorySegment.POINTER, 1);
+        program.emitPush(MemorySegment.TEMP, 0);
+        program.emitPop(MemorySegment.THAT, 0); // the value reads THAT before it moves
+        program.emitLabel("A");
+        program.emitPush(MemorySegment.CONSTANT, 0);
+        program.emitReturn();
+        assertEquals(program.toString(), PeepholeOptimizer.optimize(program).toString());
+    }
+
+    @Test
+    void testConstants() {
+        String source = "class Main {\n" +
+                "    function int f(int x) {\n" +
+                "        var int n, m;\n" +
+                "        let m = m + 1;\n" +
+                "        let n = 2 * 3 + 1;\n" +
+                "        let m = n * 4 - x;\n" +
+                "        do Output.printInt(32767 + 1);\n" +
+                "        do Output.printInt(-n / 0);\n" +
+                "        while (n > m) {\n" +
+                "            let n = n - 1;\n" +
+                "        }\n" +
+                "        return n;\n" +
+                "    }\n" +
+                "}\n";
+        String expected = "function Main.f 2\n" +
+                "push constant 1\n" + // locals start out as 0
+                "pop local 1\n" +
+                "push constant 7\n" +
+                "pop local 0\n" +
+                "push constant 28\n" +
+                "push argument 0\n" +
+                "sub\n" +
+                "pop local 1\n" +
+                "push constant 32767\n" + // -32768, wrapped around
+                "not\n" +
+                "call Output.printInt 1\n" +
+                "pop temp 0\n" +
+                "push constant 7\n" +
+                "neg\n" +
+                "push constant 0\n" +
+                "call Math.divide 2\n" + // division by zero is an error at run time
+                "call Output.printInt 1\n" +
+                "pop temp 0\n" +
+                "label Main.f$WHILE_0\n" + // n and m are not constant once the loop runs
+                "push local 0\n" +
+                "push local 1\n" +
+                "gt\n" +
+                "not\n" +
+                "if-goto Main.f$WHILE_END_0\n" +
+                "push local 0\n" +
+                "push constant 1\n" +
+                "sub\n" +
+                "pop local 0\n" +
+                "goto Main.f$WHILE_0\n" +
+                "label Main.f$WHILE_END_0\n" +
+                "push local 0\n" +
+                "return\n";
+        assertEquals(expected, PeepholeOptimizer.optimize(new Parser(source).compileProgram()).toString());
+    }
+
+    @Test
+    void testStrengthReduction() {
+        assertEquals("push argument 0\n" +
+                "push argument 0\n" +
+                "add\n" +
+                "push argument 0\n" +
+                "add\n", optimizeExpression("push argument 0\npush constant 3\ncall Math.multiply 2\n"));
+        assertEquals("push argument 0\n" +
+                "push argument 0\n" +
+                "add\n" +
+                "pop temp 2\n" +
+                "push temp 2\n" +
+                "push temp 2\n" +
+                "add\n" +
+                "neg\n", optimizeExpression("push constant 4\nneg\npush argument 0\ncall Math.multiply 2\n"));
+        assertEquals("push argument 0\n" + // a + b is computed once, then read from temp 1
+                "push argument 1\n" +
+                "add\n" +
+                "pop temp 1\n" +
+                "push temp 1\n" +
+                "push temp 1\n" +
+                "add\n" +
+                "push temp 1\n" +
+                "add\n" +
+                "pop temp 2\n" +
+                "push temp 2\n" +
+                "push temp 2\n" +
+                "add\n" +
+                "push temp 1\n" +
+                "add\n", optimizeExpression("push argument 0\npush argument 1\nadd\npush constant 7\n" +
+                "call Math.multiply 2\n"));
+        assertEquals("push argument 0\n", optimizeExpression("push argument 0\npush constant 1\ncall Math.divide 2\n"));
+
+        // too long inlined, or no cheap equivalent
+        String multiply = "push argument 0\npush constant 1000\ncall Math.multiply 2\n";
+        assertEquals(multiply, optimizeExpression(multiply));
+        String divide = "push argument 0\npush constant 2\ncall Math.divide 2\n";
+        assertEquals(divide, optimizeExpression(divide));
+
+        String source = "class Main {\n" +
+                "    function int f(Array a, int i) {\n" +
+                "        return a[i] * 2;\n" +
+                "    }\n" +
+                "}\n";
+        assertEquals("function Main.f 0\n" +
+                "push argument 0\n" +
+                "push argument 1\n" +
+                "add\n" +
+                "pop pointer 1\n" +
+                "push that 0\n" +
+                "push that 0\n" +
+                "add\n" +
+                "return\n", PeepholeOptimizer.optimize(new Parser(source).compileProgram()).toString());
+    }
+
+    /**
+     * Optimizes the VM code of an expression as the body of a function that returns its value
+     * @param expression the VM code, with one instruction per line
+     * @return the optimized VM code, without the function and return
+     */
+    private static String optimizeExpression(String expression) {
+        VmProgram program = new VmProgram();
+        program.emitFunction("Main.f", 0);
+        for (String line : expression.split("\n")) {
+            String[] parts = line.split(" ");
+            if (parts[0].equals("push")) {
+                program.emitPush(MemorySegment.valueOf(parts[1].toUpperCase()), Integer.parseInt(parts[2]));
+            } else if (parts[0].equals("call")) {
+                program.emitFuncCall(parts[1], Integer.parseInt(parts[2]));
+            } else {
+                program.emitArithmetic(Arrays.asList(VmProgram.OPCODE_NAMES).indexOf(parts[0]));
+            }
+        }
+        program.emitReturn();
+        String optimized = PeepholeOptimizer.optimize(program).toString();
+        return optimized.substring("function Main.f 0\n".length(), optimized.length() - "return\n".length());
+    }
+
+    @Test
+    void testSelectedRules() {
+        VmProgram program = new Parser(SOURCE_CODE).compileProgram();
+        VmProgram unchanged = new VmProgram();
+        PeepholeOptimizer optimizer = new PeepholeOptimizer(unchanged, EnumSet.noneOf(PeepholeOptimizer.Rule.class));
+        program.replay(optimizer);
+        optimizer.flush();
+        assertEquals(program.toString(), unchanged.toString());
+        assertEquals(0, optimizer.getNumRemoved());
+
+        VmProgram negations = new VmProgram();
+        optimizer = new PeepholeOptimizer(negations, EnumSet.of(PeepholeOptimizer.Rule.NEGATIONS));
+        program.replay(optimizer);
+        optimizer.flush();
+        assertEquals(4, optimizer.getNumRemoved());
+        assertFalse(negations.toString().contains("not\nnot\n"));
+    }
+}
@@ -1,11 +1,21 @@
 package test;
 
+import main.ByteScanner;
+import main.InternPool;
+import main.ParallelLexer;
+import main.ScalarByteScanner;
+import main.TokenKind;
+import main.TokenTable;
 import main.Tokenizer;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -92,4 +102,158 @@ class TokenizerTest {
         }
         Assertions.assertFalse(tokenizer.hasNextToken());
     }
+
+    @Test
+    void testMixedCommentsAndStrings() throws IOException {
+        File inputFile = new File("TokenizerTests/test_mixed_comments_and_strings.txt");
+        Tokenizer tokenizer = new Tokenizer(inputFile);
+        List<String> expectedTokens = Arrays.asList("let", "s", "=", "\"a // b\"", "+", "\"c\"", ";",
+                "let", "x", "=", "y", "/", "2", ";", "let", "z", "=", "x", "*", "3", ";");
+        for (int i = 0; i < expectedTokens.size(); i++) {
+            Assertions.assertTrue(tokenizer.hasNextToken());
+            Assertions.assertEquals(expectedTokens.get(i), tokenizer.getNextToken());
+        }
+        Assertions.assertFalse(tokenizer.hasNextToken());
+    }
+
+    @Test
+    void testBackTrackWithinLookaheadWindow() throws IOException {
+        File inputFile = new File("TokenizerTests/jack_test_1.txt");
+        Tokenizer tokenizer = new Tokenizer(inputFile);
+        Assertions.assertEquals("class", tokenizer.getNextToken());
+        Assertions.assertEquals("JackTest", tokenizer.getNextToken());
+        Assertions.assertEquals("{", tokenizer.getNextToken());
+        Assertions.assertTrue(tokenizer.hasNextToken());
+        tokenizer.backTrack();
+        tokenizer.backTrack();
+        Assertions.assertEquals("JackTest", tokenizer.getNextToken());
+        Assertions.assertEquals("{", tokenizer.getNextToken());
+        Assertions.assertEquals("field", tokenizer.getNextToken());
+        Assertions.assertEquals("int", tokenizer.getNextToken());
+        for (int i = 0; i < 4; i++) {
+            tokenizer.backTrack();
+        }
+        Assertions.assertThrows(IllegalStateException.class, tokenizer::backTrack);
+        Assertions.assertEquals("JackTest", tokenizer.getNextToken());
+    }
+
+    @Test
+    void testTokenTable() throws IOException {
+        TokenTable table = TokenTable.tokenize(new File("TokenizerTests/jack_test_string_lit.txt"));
+        List<String> expectedTokens = Arrays.asList("var", "String", "str",
+                ";", "let", "str", "=", "\"hello world\"", ";");
+        List<TokenKind> expectedKinds = Arrays.asList(TokenKind.KEYWORD, TokenKind.IDENTIFIER,
+                TokenKind.IDENTIFIER, TokenKind.SYMBOL, TokenKind.KEYWORD, TokenKind.IDENTIFIER,
+                TokenKind.SYMBOL, TokenKind.STRING_CONST, TokenKind.SYMBOL);
+        Assertions.assertEquals(expectedTokens.size(), table.size());
+        for (int i = 0; i < expectedTokens.size(); i++) {
+            Assertions.assertEquals(expectedTokens.get(i), table.text(i));
+            Assertions.assertEquals(expectedKinds.get(i), table.kind(i));
+        }
+        Tokenizer tokenizer = new Tokenizer(table);
+        for (int i = 0; i < expectedTokens.size(); i++) {
+            Assertions.assertEquals(expectedTokens.get(i), tokenizer.getNextToken());
+        }
+        Assertions.assertFalse(tokenizer.hasNextToken());
+    }
+
+    @Test
+    void testInternedTokenIds() throws IOException {
+        File inputFile = new File("TokenizerTests/jack_test_string_lit.txt");
+        Tokenizer tokenizer = new Tokenizer(inputFile);
+        InternPool pool = tokenizer.getPool();
+        Assertions.assertEquals(InternPool.KW_VAR, tokenizer.getNextTokenId());
+        int stringTypeId = tokenizer.getNextTokenId();
+        int strId = tokenizer.getNextTokenId();
+        Assertions.assertEquals("String", pool.name(stringTypeId));
+        Assertions.assertEquals(InternPool.SYM_SEMICOLON, tokenizer.getNextTokenId());
+        Assertions.assertEquals(InternPool.KW_LET, tokenizer.getNextTokenId());
+        Assertions.assertEquals(strId, tokenizer.getNextTokenId()); // same identifier, same ID
+        Assertions.assertEquals(InternPool.SYM_EQUALS, tokenizer.getNextTokenId());
+        Assertions.assertEquals(InternPool.NO_ID, tokenizer.getNextTokenId());
+        Assertions.assertEquals("\"hello world\"", tokenizer.getCurrentToken());
+        Assertions.assertEquals(TokenKind.STRING_CONST, tokenizer.getCurrentKind());
+        Assertions.assertEquals("hello world", tokenizer.getCurrentStringValue());
+        Assertions.assertEquals(strId, pool.lookUp("str"));
+    }
+
+    @Test
+    void testIntConstantValue() throws IOException {
+        File inputFile = new File("TokenizerTests/test_mixed_comments_and_strings.txt");
+        Tokenizer tokenizer = new Tokenizer(inputFile);
+        List<Integer> values = new ArrayList<>();
+        while (tokenizer.hasNextToken()) {
+            tokenizer.getNextTokenId();
+            if (tokenizer.getCurrentKind() == TokenKind.INT_CONST) {
+                values.add(tokenizer.getCurrentIntValue());
+            }
+        }
+        Assertions.assertEquals(Arrays.asList(2, 3), values);
+    }
+
+    @Test
+    void testIncrementalEdits() throws IOException {
+        String source = new String(Files.readAllBytes(new File("TokenizerTests/test_block_comments_2.txt").toPath()),
+                StandardCharsets.ISO_8859_1);
+        InternPool pool = new InternPool();
+        TokenTable table = TokenTable.tokenize(ByteBuffer.wrap(source.getBytes(StandardCharsets.ISO_8859_1)), pool);
+        // {offset, removed length} of each edit, applied one after the other along with the inserted texts
+        int[][] edits = {{0, 0}, {42, 0}, {50, 3}, {60, 0}, {61, 2}, {0, 5}, {90, 0}, {20, 10}};
+        String[] insertedTexts = {"/* ", "Other", "", "/*", "*/", "", "\"a // b\"", "x"};
+        for (int i = 0; i < edits.length; i++) {
+            int offset = edits[i][0];
+            int removed = edits[i][1];
+            source = source.substring(0, offset) + insertedTexts[i] + source.substring(offset + removed);
+            table = table.edit(offset, removed, insertedTexts[i]);
+            TokenTable expected = TokenTable.tokenize(ByteBuffer.wrap(source.getBytes(StandardCharsets.ISO_8859_1)), pool);
+            Assertions.assertEquals(expected.size(), table.size());
+            for (int j = 0; j < expected.size(); j++) {
+                Assertions.assertEquals(expected.kind(j), table.kind(j));
+                Assertions.assertEquals(expected.start(j), table.start(j));
+                Assertions.assertEquals(expected.text(j), table.text(j));
+            }
+        }
+    }
+
+    @Test
+    void testByteScannersAgree() {
+        // bytes of 0x80 and above, like the \u00e9, are not whitespace
+        String spaces = " ".repeat(128);
+        String[] texts = {"      \t  \n   let x = 1; /* a comment that is longer than one vector of bytes */ "
+                + "// and a line comment that is also fairly long\r\n  */",
+                spaces.substring(0, 3) + "\u00e9" + spaces.substring(4, 100) + "x" + spaces.substring(101),
+                "/* caf\u00e9 */" + spaces + "\u00ff\u0080 // na\u00efve\n" + spaces};
+        ByteScanner expected = new ScalarByteScanner();
+        ByteScanner scanner = ByteScanner.create(); // vectorized when jdk.incubator.vector is present
+        for (String text : texts) {
+            ByteBuffer source = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+            for (int from = 0; from < text.length(); from++) {
+                Assertions.assertEquals(expected.skipWhitespace(source, from, text.length()),
+                        scanner.skipWhitespace(source, from, text.length()));
+                Assertions.assertEquals(expected.indexOfLineEnd(source, from, text.length()),
+                        scanner.indexOfLineEnd(source, from, text.length()));
+                Assertions.assertEquals(expected.indexOfBlockCommentEnd(source, from, text.length()),
+                        scanner.indexOfBlockCommentEnd(source, from, text.length()));
+            }
+        }
+    }
+
+    @Test
+    void testParallelLexingMatchesSequential() throws IOException {
+        for (String fileName : Arrays.asList("TokenizerTests/test_block_comments.txt",
+                "TokenizerTests/test_block_comments_2.txt", "TokenizerTests/jack_test_1.txt")) {
+            ByteBuffer source = ByteBuffer.wrap(Files.readAllBytes(new File(fileName).toPath()));
+            TokenTable expected = TokenTable.tokenize(source, new InternPool());
+            // tiny chunks so that chunk boundaries fall inside block comments
+            for (int chunkSize = 1; chunkSize <= 32; chunkSize *= 2) {
+                TokenTable table = ParallelLexer.tokenize(source, new InternPool(), chunkSize);
+                Assertions.assertEquals(expected.size(), table.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    Assertions.assertEquals(expected.kind(i), table.kind(i));
+                    Assertions.assertEquals(expected.start(i), table.start(i));
+                    Assertions.assertEquals(expected.text(i), table.text(i));
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package test;
+
+import main.MemorySegment;
+import main.Parser;
+import main.VmProgram;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VmProgramTest {
+
+    private static final String SOURCE_CODE = "class Main {\n" +
+            "    field Array items;\n" +
+            "    static int count;\n" +
+            "    constructor Main new(int size) {\n" +
+            "        let items = Array.new(size);\n" +
+            "        return this;\n" +
+            "    }\n" +
+            "    method int sum(int n) {\n" +
+            "        var int i, total;\n" +
+            "        let i = 0;\n" +
+            "        while (i < n) {\n" +
+            "            if (~(items[i] = 0) & (i > -1)) {\n" +
+            "                let total = total + (items[i] * 2) / 3;\n" +
+            "            } else {\n" +
+            "                let count = count | 1;\n" +
+            "            }\n" +
+            "            let i = i - 1;\n" +
+            "        }\n" +
+            "        do Output.printString(\"sum\");\n" +
+            "        return total;\n" +
+            "    }\n" +
+            "}\n";
+
+    @Test
+    void testTextMatchesCodeGenerator() {
+        VmProgram program = new Parser(SOURCE_CODE).compileProgram();
+        assertEquals(new Parser(SOURCE_CODE).compileClass(), program.toString());
+
+        assertEquals(VmProgram.FUNCTION, program.opcode(0));
+        assertEquals("Main.new", program.name(0));
+        assertEquals(0, program.number(0));
+        assertEquals(VmProgram.PUSH, program.opcode(1));
+        assertEquals(MemorySegment.CONSTANT, program.segment(1));
+        assertEquals(1, program.number(1)); // one field
+        assertEquals(VmProgram.CALL, program.opcode(2));
+        assertEquals("Memory.alloc", program.name(2));
+        assertEquals(VmProgram.RETURN, program.opcode(program.size() - 1));
+    }
+
+    @Test
+    void testBinaryRoundTrip() throws IOException {
+        VmProgram program = new Parser(SOURCE_CODE).compileProgram();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        program.writeBinary(out);
+        VmProgram loaded = VmProgram.readBinary(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(program.size(), loaded.size());
+        for (int i = 0; i < program.size(); i++) {
+            assertEquals(program.opcode(i), loaded.opcode(i));
+            assertEquals(program.number(i), loaded.number(i));
+        }
+        assertEquals(program.toString(), loaded.toString());
+
+        // text is not a program, nor is a program that refers to a name it does not have
+        byte[] text = program.toString().getBytes();
+        assertThrows(IOException.class, () -> VmProgram.readBinary(new ByteArrayInputStream(text)));
+        VmProgram single = new VmProgram();
+        single.emitLabel("END");
+        out.reset();
+        single.writeBinary(out);
+        byte[] binary = out.toByteArray();
+        binary[10] = 'B'; // the name of the label, after the magic, the name count and the name length
+        assertEquals("label BND\n", VmProgram.readBinary(new ByteArrayInputStream(binary)).toString());
+        binary[binary.length - 6] = 1; // the label now refers to name ID 1, past the name table
+        assertThrows(IOException.class, () -> VmProgram.readBinary(new ByteArrayInputStream(binary)));
+    }
+}